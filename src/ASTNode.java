@@ -1,9 +1,19 @@
 package src;
 
 import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * ASTNode implements a Syntax tree for the expression evaluation
+ * <p>
+ * A node either holds its token and children itself or is a view of one
+ * node of a SyntaxTree, reading them from its arrays. A view node holds its
+ * token and children itself from the first time one of them is set.
  */
 public class ASTNode implements Serializable {
 	
@@ -11,6 +21,10 @@ public class ASTNode implements Serializable {
     private Lexer.Token token;
     private ASTNode left;
     private ASTNode right;
+    private BuiltinFunction function;    // resolved by the parser for FUNC nodes
+    private transient UserFunction userFunction;    // bound by the parser for registered functions
+    private SyntaxTree.View view;    // null unless this is a view of a SyntaxTree node
+    private int index;
 
     /** Constructor for ASTNode
      * @param tok The Token for this node
@@ -21,32 +35,169 @@ public class ASTNode implements Serializable {
         this.right = null;
     }
 
+    /** Constructor for a view of a SyntaxTree node
+     * @param view The view the node belongs to
+     * @param index The index of the node in the tree
+     */
+    ASTNode(SyntaxTree.View view, int index) {
+        this.view = view;
+        this.index = index;
+    }
+
+    /** Creates a leaf node holding a number
+     * @param value The value of the number
+     * @return A new NUM node
+     */
+    static ASTNode number(double value) {
+        return new ASTNode(Lexer.newToken(Lexer.TokenType.NUM, Double.toString(value)));
+    }
+
+    /** Creates a node with the same token and children
+     * @return A shallow copy of this node
+     */
+    ASTNode copy() {
+        ASTNode node = new ASTNode(this.view, this.index);
+        node.detach();
+        if (this.view == null) {
+            node.token = this.token;
+            node.left = this.left;
+            node.right = this.right;
+            node.function = this.function;
+            node.userFunction = this.userFunction;
+        }
+        return node;
+    }
+
+    /** Makes a view node hold its token and children itself, so they can be set
+     */
+    private void detach() {
+        if (this.view == null) {
+            return;
+        }
+        SyntaxTree tree = this.view.tree();
+        this.token = Lexer.newToken(tree.type(this.index), tree.text(this.index));
+        this.left = this.view.node(tree.left(this.index));
+        this.right = this.view.node(tree.right(this.index));
+        this.userFunction = getUserFunction();
+        this.function = getFunction();
+        this.view = null;
+    }
+
+    /** Lists the nodes of syntax trees with every node after its children
+     * <p>
+     * Nodes reachable more than once, as in a hash-consed DAG, are listed once.
+     * The walk keeps its own stack, so trees of any depth can be listed.
+     * @param roots The roots of the trees
+     * @return The distinct nodes, left children before right children before parents
+     */
+    static List<ASTNode> postOrder(ASTNode... roots) {
+        List<ASTNode> order = new ArrayList<>();
+        Map<ASTNode, Boolean> listed = new IdentityHashMap<>();    // false while its children are pending
+        Deque<ASTNode> stack = new ArrayDeque<>();
+        for (int i = roots.length - 1; i >= 0; i--) {
+            if (roots[i] != null) {
+                stack.push(roots[i]);
+            }
+        }
+        while (!stack.isEmpty()) {
+            ASTNode node = stack.peek();
+            Boolean state = listed.get(node);
+            if (state == null) {
+                listed.put(node, Boolean.FALSE);
+                ASTNode right = node.getRight();
+                ASTNode left = node.getLeft();
+                if (right != null && !listed.containsKey(right)) {
+                    stack.push(right);
+                }
+                if (left != null && !listed.containsKey(left)) {
+                    stack.push(left);
+                }
+            } else {
+                stack.pop();
+                if (!state) {
+                    listed.put(node, Boolean.TRUE);
+                    order.add(node);
+                }
+            }
+        }
+        return order;
+    }
+
     /** Returns the type of the token in the node
      * @return The tokens TokenType
      */
     public Lexer.TokenType getTokenType() {
-        return this.token.tokenType;
+        return this.view != null ? this.view.tree().type(this.index) : this.token.tokenType;
     }
 
     /** Returns the value stored in the token
      * @return The value of the token
      */
     public String getTokenVal() {
-        return this.token.tokenVal;
+        return this.view != null ? this.view.tree().text(this.index) : this.token.tokenVal;
     }
 
+    /** Returns the number held by a NUM node, parsed once by the lexer
+     * @return The number, or NaN if this is not a NUM node
+     */
+    double getNumber() {
+        return this.view != null ? this.view.tree().number(this.index) : this.token.value;
+    }
+
+
+    /** Returns the function applied by a FUNC node
+     * @return The function, or null if the name is unknown or this is not a FUNC node
+     */
+    public BuiltinFunction getFunction() {
+        if (this.function == null && getTokenType() == Lexer.TokenType.FUNC) {
+            // trees saved before names were resolved at parse time
+            this.function = BuiltinFunction.forName(getTokenVal());
+        }
+        return this.function;
+    }
+
+    /** Sets the function applied by a FUNC node
+     * @param function The resolved function
+     */
+    public void setFunction(BuiltinFunction function) {
+        detach();
+        this.function = function;
+    }
+
+    /** Returns the registered function applied by a FUNC node
+     * @return The function, or null if this node applies a built-in function or is not a FUNC node
+     */
+    public UserFunction getUserFunction() {
+        if (this.view != null) {
+            return getTokenType() == Lexer.TokenType.FUNC ? this.view.tree().userFunction(this.index) : null;
+        }
+        if (this.userFunction == null && getFunction() == null && getTokenType() == Lexer.TokenType.FUNC) {
+            // implementations are not serialized, bind again after loading
+            this.userFunction = FunctionRegistry.getDefault().lookup(getTokenVal());
+        }
+        return this.userFunction;
+    }
+
+    /** Sets the registered function applied by a FUNC node
+     * @param function The bound function
+     */
+    public void setUserFunction(UserFunction function) {
+        detach();
+        this.userFunction = function;
+    }
 
     /** Returns the left node
      * @return The left ASTNode
      */
     public ASTNode getLeft() {
-        return left;
+        return this.view != null ? this.view.node(this.view.tree().left(this.index)) : this.left;
     }
 
     /** Sets the left ASTNode
      * @param left The Node to set to
      */
     public void setLeft(ASTNode left) {
+        detach();
         this.left = left;
     }
 
@@ -54,13 +205,14 @@ public class ASTNode implements Serializable {
      * @return The Right node
      */
     public ASTNode getRight() {
-        return right;
+        return this.view != null ? this.view.node(this.view.tree().right(this.index)) : this.right;
     }
 
     /** Sets the right Node
      * @param right The node to set to
      */
     public void setRight(ASTNode right) {
+        detach();
         this.right = right;
     }
 }
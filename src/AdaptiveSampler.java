@@ -0,0 +1,158 @@
+package src;
+
+/**
+ * AdaptiveSampler samples a Function for the graph where its shape needs it,
+ * instead of at every step of a fixed grid.
+ * <p>
+ * The range is cut into a few even segments. A segment is halved while the
+ * point at its middle lies further from its chord, measured in pixels, than
+ * the tolerance, so straight stretches keep their few samples and sharp turns
+ * get as many as they need. Subdivision stops at the sample budget. A segment
+ * still far from straight after the deepest subdivision, such as one across a
+ * pole of tan or 1/x, is split by a NaN sample so it is not drawn as a line.
+ * Segments wholly above or below the viewport are not subdivided.
+ * The tolerance and budget are read from the system properties
+ * "calculator.adaptive.tolerance" and "calculator.adaptive.budget".
+ */
+final class AdaptiveSampler {
+
+    static final int SEGMENTS = 32;
+    private static final int MAX_DEPTH = 24;
+    private static final double DEFAULT_TOLERANCE = 0.5;
+    private static final int DEFAULT_BUDGET = 8192;
+    private static volatile double tolerance = parseTolerance(System.getProperty("calculator.adaptive.tolerance"));
+    private static volatile int budget = Math.max(SEGMENTS + 1,
+            Integer.getInteger("calculator.adaptive.budget", DEFAULT_BUDGET));
+
+    private AdaptiveSampler() {
+    }
+
+    private static double parseTolerance(String value) {
+        try {
+            return value == null ? DEFAULT_TOLERANCE : Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return DEFAULT_TOLERANCE;
+        }
+    }
+
+    /** Returns how far in pixels the curve may stray from a drawn segment
+     * @return The tolerance
+     */
+    static double getTolerance() {
+        return tolerance;
+    }
+
+    /** Sets how far in pixels the curve may stray from a drawn segment
+     * @param pixels The tolerance, positive
+     */
+    static void setTolerance(double pixels) {
+        if (!(pixels > 0)) {
+            throw new IllegalArgumentException("Tolerance must be positive");
+        }
+        tolerance = pixels;
+    }
+
+    /** Returns the largest number of evaluations for one curve
+     * @return The budget
+     */
+    static int getBudget() {
+        return budget;
+    }
+
+    /** Sets the largest number of evaluations for one curve
+     * @param evaluations The budget, at least one more than the number of initial segments
+     */
+    static void setBudget(int evaluations) {
+        if (evaluations <= SEGMENTS) {
+            throw new IllegalArgumentException("Budget must exceed " + SEGMENTS);
+        }
+        budget = evaluations;
+    }
+
+    /** Samples a function over a range of inputs for a viewport
+     * @param funct The function to sample
+     * @param from The first input value
+     * @param to The last input value
+     * @param xScale Pixels per unit of x
+     * @param yScale Pixels per unit of y
+     * @param yMin The bottom of the viewport
+     * @param yMax The top of the viewport
+     * @param out Filled with the samples in input order, with a NaN y where the curve breaks
+     * @return The number of evaluations
+     * @throws java.util.concurrent.CancellationException if a render worker is interrupted while sampling
+     */
+    static int sample(Function funct, double from, double to, double xScale, double yScale,
+                      double yMin, double yMax, SampleBuffer out) {
+        final double limit = tolerance * tolerance;
+        final int evaluationBudget = budget;
+        out.clear();
+        // right ends of the pending segments, nearest on top, and one free slot for a midpoint
+        int capacity = SEGMENTS + MAX_DEPTH + 2;
+        double[] ts = new double[capacity];
+        double[] xs = new double[capacity];
+        double[] ys = new double[capacity];
+        int[] depths = new int[capacity];
+        int top = 0;
+        for (int k = SEGMENTS; k >= 0; k--) {
+            ts[top] = from + (to - from) * k / SEGMENTS;
+            funct.calcInto(ts[top], xs, ys, top);
+            depths[top++] = 0;
+        }
+        int evaluations = SEGMENTS + 1;
+        top--;
+        double t0 = ts[top];
+        double x0 = xs[top];
+        double y0 = ys[top];
+        out.add(x0, y0);
+        while (top > 0) {
+            int r = top - 1;
+            if (evaluations < evaluationBudget) {
+                if ((evaluations & 0xFF) == 0) {
+                    RenderPipeline.checkCancelled();
+                }
+                double tm = 0.5 * (t0 + ts[r]);
+                funct.calcInto(tm, xs, ys, top);
+                evaluations++;
+                if (deviates(x0, y0, xs[top], ys[top], xs[r], ys[r], xScale, yScale, yMin, yMax, limit)) {
+                    if (depths[r] + 1 < MAX_DEPTH) {
+                        ts[top] = tm;
+                        depths[r]++;
+                        depths[top] = depths[r];
+                        top++;
+                        continue;
+                    }
+                    out.add(xs[top], Double.NaN);
+                } else {
+                    out.add(xs[top], ys[top]);
+                }
+            }
+            top = r;
+            t0 = ts[r];
+            x0 = xs[r];
+            y0 = ys[r];
+            out.add(x0, y0);
+        }
+        return evaluations;
+    }
+
+    /** Checks if the middle of a segment is too far from its chord to draw it as a line
+     * <p>
+     * A segment with some but not all of its points undefined is always split,
+     * to find where the curve ends.
+     */
+    private static boolean deviates(double x0, double y0, double xm, double ym, double x1, double y1,
+                                    double xScale, double yScale, double yMin, double yMax, double limit) {
+        if ((y0 > yMax && ym > yMax && y1 > yMax) || (y0 < yMin && ym < yMin && y1 < yMin)) {
+            return false;
+        }
+        boolean finite0 = Double.isFinite(x0) && Double.isFinite(y0);
+        boolean finiteM = Double.isFinite(xm) && Double.isFinite(ym);
+        boolean finite1 = Double.isFinite(x1) && Double.isFinite(y1);
+        if (!finite0 || !finiteM || !finite1) {
+            return finite0 || finiteM || finite1;
+        }
+        double dx = (xm - 0.5 * (x0 + x1)) * xScale;
+        double dy = (ym - 0.5 * (y0 + y1)) * yScale;
+        return dx * dx + dy * dy > limit;
+    }
+}
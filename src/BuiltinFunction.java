@@ -0,0 +1,58 @@
+package src;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Enumerates the functions the calculator knows, resolved from their names
+ * once when an expression is parsed
+ */
+enum BuiltinFunction {
+    EXP("e^", Program.EXP),
+    SIN("sin", Program.SIN),
+    COS("cos", Program.COS),
+    TAN("tan", Program.TAN),
+    ASIN("sin^-1", Program.ASIN),
+    ACOS("cos^-1", Program.ACOS),
+    ATAN("tan^-1", Program.ATAN),
+    LN("ln", Program.LN),
+    LOG("log", Program.LOG);
+
+    private static final Map<String, BuiltinFunction> BY_NAME = new HashMap<>();
+
+    static {
+        for (BuiltinFunction function : values()) {
+            BY_NAME.put(function.functionName, function);
+        }
+    }
+
+    private final String functionName;
+    private final int opcode;
+
+    BuiltinFunction(String functionName, int opcode) {
+        this.functionName = functionName;
+        this.opcode = opcode;
+    }
+
+    /** Finds the function with the given name
+     * @param name The name as written in an expression
+     * @return The function, or null if there is none with that name
+     */
+    static BuiltinFunction forName(String name) {
+        return BY_NAME.get(name);
+    }
+
+    /** Returns the name of the function as written in an expression
+     * @return The function name
+     */
+    String functionName() {
+        return this.functionName;
+    }
+
+    /** Returns the Program instruction that applies the function
+     * @return The opcode
+     */
+    int opcode() {
+        return this.opcode;
+    }
+}
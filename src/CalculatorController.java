@@ -1,8 +1,13 @@
 package src;
 
+import java.util.HashMap;
+import java.util.Map;
+
 public class CalculatorController {
 
 	private CalculatorModel model;
+	private ExpressionCache cache = ExpressionCache.shared();
+	private Map<Integer, IncrementalParser> editors = new HashMap<>();    // one per equation edited live
 
 	public CalculatorController(CalculatorModel model) {
 		this.model = model;
@@ -15,8 +20,8 @@ public class CalculatorController {
 	 */
 	public String doCalculation(String expression) {
 		try {
-			return "" + (new Expression(expression)).evaluate();
-		} catch (ExpressionException e) {
+			return "" + cache.get(expression).evaluate();
+		} catch (ExpressionException | SyntaxException e) {
 			return "Invalid Expression";
 		}
 	}
@@ -31,11 +36,10 @@ public class CalculatorController {
 		String result = "";
 		try {
 			double x1 = Double.parseDouble(s1);
-			double x2 = x1+ model.getStep();
-			Expression exp = new Expression(expression);
-			double y1 = exp.evaluate(x1);
-			double y2 = exp.evaluate(x2);
-			double m = (y2 - y1) / (x2 - x1);
+			double[] dual = new double[2];
+			cache.get(expression).evaluateDual(x1, dual);
+			double y1 = dual[0];
+			double m = dual[1];
 			double b = y1 - (m * x1);
 			m = Math.round((m*100))/100.0;
 			b = Math.round((b*1000))/1000.0;
@@ -55,6 +59,27 @@ public class CalculatorController {
 		model.addSingleVariateFunction(index, equation);
 	}
 
+	/**
+	 * Replaces an equation as it is typed, parsing only the part that changed since the last call
+	 * @param index index in the GUI list of equations
+	 * @param equation text in the equation's TextField
+	 * @throws SyntaxException if the text cannot be parsed, as while it is half typed
+	 */
+	public void editSingleVariate(int index, String equation) {
+		IncrementalParser parser = editors.computeIfAbsent(index, i -> new IncrementalParser());
+		SyntaxTree parsed = parser.reparse(equation);
+		model.addSingleVariateFunction(index, cache.get(equation, () -> new Expression(equation, parsed)), equation);
+	}
+
+	/**
+	 * Adds the graph of an equation's derivative to the model
+	 * @param index index in the GUI list of equations
+	 * @param equation text of the equation to differentiate
+	 */
+	public void addDerivative(int index, String equation) {
+		model.addDerivativeFunction(index, equation);
+	}
+
 	/**
 	 * Adds a new parametric equation to the model
 	 * @param xExpr
@@ -86,6 +111,7 @@ public class CalculatorController {
 	 * @param index index in the GUI list of equations
 	 */
 	public void removeEquation(int index) {
+		editors.remove(index);
 		model.removeEquation(index);
 	}
 	
@@ -121,6 +147,18 @@ public class CalculatorController {
 		model.setYMax(newY);
 	}
 	
+	/**
+	 * Moves the model's window and sets its step in one change
+	 * @param xMin new minX value
+	 * @param xMax new maxX value
+	 * @param yMin new minY value
+	 * @param yMax new maxY value
+	 * @param step new step value
+	 */
+	public void changeViewport(double xMin, double xMax, double yMin, double yMax, double step) {
+		model.applyViewport(xMin, xMax, yMin, yMax, step);
+	}
+	
 	/**
 	 * Changes the model's step value
 	 * @param newStep new step value
@@ -133,6 +171,15 @@ public class CalculatorController {
 		model.setColor(index, newColor);
 	}
 	
+	/**
+	 * Changes how an equation is sampled for the graph
+	 * @param index index in the GUI list of equations
+	 * @param adaptive true to sample where the curve bends, false to sample every step
+	 */
+	public void changeSampling(int index, boolean adaptive) {
+		model.setAdaptive(index, adaptive);
+	}
+
 	/**
 	 * Updates the pane
 	 */
@@ -2,8 +2,10 @@ package src;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Observable;
+import java.util.concurrent.Executor;
 
 public class CalculatorModel extends Observable implements Serializable {
 
@@ -17,6 +19,12 @@ public class CalculatorModel extends Observable implements Serializable {
     private double yMin = -10.0;
     private double step = 0.1;
 
+    // notifications are coalesced, these describe the one not yet sent
+    private transient EnumSet<ModelChange.Kind> pending;
+    private transient boolean dirty;
+    private transient boolean scheduled;
+    private transient int batchDepth;
+    private transient Executor notifier;
 
     /**
      * Constructor
@@ -26,8 +34,13 @@ public class CalculatorModel extends Observable implements Serializable {
     }
 
     public void clearFunctions() {
-        for (int i = functionHolder.size(); i >= 0; i--) {
-            this.removeEquation(i);
+        beginUpdate();
+        try {
+            for (int i = functionHolder.size(); i >= 0; i--) {
+                this.removeEquation(i);
+            }
+        } finally {
+            commitUpdate();
         }
     }
 
@@ -36,25 +49,58 @@ public class CalculatorModel extends Observable implements Serializable {
      *
      * @param index      position in the GUI list of equations
      * @param expression String representation of the expression
+     * @throws SyntaxException if the expression cannot be parsed
      */
     public void addSingleVariateFunction(int index, String expression) {
+        placeFunction(index, new SingleVariate(expression, this.xMin, this.xMax));
+    }
+
+    /**
+     * Adds a single variate function of an Expression already built to functionHolder at position index
+     *
+     * @param index      position in the GUI list of equations
+     * @param expression the Expression, such as one from an incremental parse of the text
+     * @param source     the text of the expression as typed
+     */
+    void addSingleVariateFunction(int index, Expression expression, String source) {
+        placeFunction(index, new SingleVariate(expression, source, this.xMin, this.xMax));
+    }
+
+    private void placeFunction(int index, Function function) {
         if (index < functionHolder.size()) {
             functionHolder.remove(index);
-            functionHolder.add(index, new SingleVariate(expression, this.xMin, this.xMax));
+            functionHolder.add(index, function);
         } else {
             for (int i = functionHolder.size(); i < index; i++) {
                 functionHolder.add(null);
             }
 
-            functionHolder.add(new SingleVariate(expression, this.xMin, this.xMax));
+            functionHolder.add(function);
         }
-        updatePane();
+        changed(ModelChange.Kind.FUNCTIONS);
+    }
+
+    /**
+     * Adds the graph of the derivative of an equation to functionHolder at position index
+     *
+     * @param index      position in the GUI list of equations
+     * @param expression String representation of the equation to differentiate
+     * @throws SyntaxException if the expression cannot be parsed
+     */
+    public void addDerivativeFunction(int index, String expression) {
+        placeFunction(index, new Derivative(expression, this.xMin, this.xMax));
     }
 
     public void addParametricFunction(String xExpr, String yExpr, double tMin, double tMax) {
-        this.clearFunctions();
-        this.functionHolder.add(new Parametric(xExpr, yExpr, tMin, tMax));
-        updatePane();
+        Parametric function = new Parametric(xExpr, yExpr, tMin, tMax);
+        beginUpdate();
+        try {
+            this.clearFunctions();
+            this.functionHolder.add(function);
+            changed(ModelChange.Kind.FUNCTIONS);
+        } finally {
+            commitUpdate();
+        }
     }
 
     /**
@@ -66,7 +112,7 @@ public class CalculatorModel extends Observable implements Serializable {
     public void removeEquation(int index) {
         if (index < functionHolder.size()) {
             functionHolder.set(index, null);
-            updatePane();
+            changed(ModelChange.Kind.FUNCTIONS);
         }
     }
 
@@ -143,6 +189,7 @@ public class CalculatorModel extends Observable implements Serializable {
      */
     public void setXMax(double max) {
         this.xMax = max;
+        pending().add(ModelChange.Kind.VIEWPORT);
         for (Function f : functionHolder) {
         	if(f != null) {
         		f.setMaxRange(max);
@@ -160,6 +207,7 @@ public class CalculatorModel extends Observable implements Serializable {
      */
     public void setXMin(double min) {
         this.xMin = min;
+        pending().add(ModelChange.Kind.VIEWPORT);
         for (Function f : functionHolder) {
         	if(f != null) {
         		f.setMinRange(min);
@@ -176,6 +224,7 @@ public class CalculatorModel extends Observable implements Serializable {
      */
     public void setYMax(double max) {
         this.yMax = max;
+        pending().add(ModelChange.Kind.VIEWPORT);
     }
 
     /**
@@ -187,6 +236,7 @@ public class CalculatorModel extends Observable implements Serializable {
      */
     public void setYMin(double min) {
         this.yMin = min;
+        pending().add(ModelChange.Kind.VIEWPORT);
     }
 
 
@@ -208,17 +258,148 @@ public class CalculatorModel extends Observable implements Serializable {
      */
     public void setStep(double step) {
         this.step = step;
-        updatePane();
+        changed(ModelChange.Kind.STEP);
     }
 
     public void setColor(int index, String color) {
         functionHolder.get(index).setColor(color);
-        updatePane();
+        changed(ModelChange.Kind.STYLE);
+    }
+
+    /**
+     * Chooses how the function at position index is sampled for the graph
+     *
+     * @param index    position in the GUI list of equations
+     * @param adaptive true to sample where the curve bends, false to sample every step
+     */
+    public void setAdaptive(int index, boolean adaptive) {
+        if (index < functionHolder.size() && functionHolder.get(index) != null) {
+            functionHolder.get(index).setAdaptive(adaptive);
+            changed(ModelChange.Kind.STYLE);
+        }
+    }
+
+    /**
+     * Moves the window of the graph and sets the step in one change, so
+     * observers are notified once with a ModelChange naming what changed
+     *
+     * @param xMin the smallest value of the x-axis
+     * @param xMax the biggest value of the x-axis
+     * @param yMin the smallest value of the y-axis
+     * @param yMax the biggest value of the y-axis
+     * @param step the distance between sampled x values
+     */
+    public void applyViewport(double xMin, double xMax, double yMin, double yMax, double step) {
+        beginUpdate();
+        try {
+            if (xMin != this.xMin || xMax != this.xMax) {
+                this.xMin = xMin;
+                this.xMax = xMax;
+                for (Function f : functionHolder) {
+                    if (f != null) {
+                        f.setMinRange(xMin);
+                        f.setMaxRange(xMax);
+                    }
+                }
+                pending().add(ModelChange.Kind.VIEWPORT);
+            }
+            if (yMin != this.yMin || yMax != this.yMax) {
+                this.yMin = yMin;
+                this.yMax = yMax;
+                pending().add(ModelChange.Kind.VIEWPORT);
+            }
+            if (step != this.step) {
+                this.step = step;
+                pending().add(ModelChange.Kind.STEP);
+            }
+            updatePane();
+        } finally {
+            commitUpdate();
+        }
     }
 
+    /**
+     * Starts a batch of changes; observers are not notified until the
+     * matching commitUpdate, which sends one ModelChange for all of them.
+     * Batches may nest.
+     */
+    public void beginUpdate() {
+        batchDepth++;
+    }
+
+    /**
+     * Ends a batch of changes started by beginUpdate, notifying observers
+     * once if anything in the batch asked for it
+     *
+     * @throws IllegalStateException if no batch is open
+     */
+    public void commitUpdate() {
+        if (batchDepth == 0) {
+            throw new IllegalStateException("No update to commit");
+        }
+        if (--batchDepth == 0 && dirty) {
+            schedule();
+        }
+    }
+
+    /**
+     * Sets how notifications are delivered. By default observers are
+     * notified at once; the view passes an executor that runs the
+     * notification at the next frame, so changes arriving within one frame
+     * are sent as one ModelChange.
+     *
+     * @param notifier runs the pending notification, null to notify at once
+     */
+    public void setNotifier(Executor notifier) {
+        this.notifier = notifier;
+    }
+
+    /**
+     * Asks the observers to redraw the graph
+     */
     public void updatePane() {
+        changed();
+    }
+
+    private EnumSet<ModelChange.Kind> pending() {
+        if (pending == null) {
+            pending = EnumSet.noneOf(ModelChange.Kind.class);
+        }
+        return pending;
+    }
+
+    private void changed(ModelChange.Kind... kinds) {
+        for (ModelChange.Kind kind : kinds) {
+            pending().add(kind);
+        }
+        dirty = true;
+        if (batchDepth == 0) {
+            schedule();
+        }
+    }
+
+    private void schedule() {
+        if (scheduled) {
+            return;
+        }
+        scheduled = true;
+        if (notifier == null) {
+            notifyPending();
+        } else {
+            notifier.execute(this::notifyPending);
+        }
+    }
+
+    private void notifyPending() {
+        scheduled = false;
+        if (batchDepth > 0 || !dirty) {
+            return;    // a batch opened meanwhile notifies on commit
+        }
+        ModelChange change = new ModelChange(pending(), functionHolder);
+        pending().clear();
+        dirty = false;
         setChanged();
-        notifyObservers(functionHolder);
+        notifyObservers(change);
     }
 
-}
\ No newline at end of file
+}
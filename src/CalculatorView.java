@@ -15,10 +15,13 @@ import java.util.Observer;
 
 import javax.imageio.ImageIO;
 
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.embed.swing.SwingFXUtils;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
+import javafx.scene.Group;
 import javafx.scene.Node;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
@@ -77,6 +80,23 @@ public class CalculatorView extends Application implements Observer {
 	
 	private CalculatorController controller = new CalculatorController(model);
 	private boolean x, y, para = false;
+	private boolean liveUpdate = false;    // replot equations as they are typed
+	private TileCache tiles = TileCache.shared();
+	private Group curves = new Group();    // the curves and dots, replaced only when a render is published
+	private Runnable nextFrame;    // the model's pending notification
+	private AnimationTimer frames = new AnimationTimer() {
+		@Override
+		public void handle(long now) {
+			Runnable notification = nextFrame;
+			nextFrame = null;
+			if (notification == null) {
+				stop();
+			} else {
+				notification.run();
+			}
+		}
+	};
+	private RenderPipeline<SampleBuffer> renders = new RenderPipeline<>(RenderPipeline.defaultThreads(), Platform::runLater);
 	private double start = -10.0;
 	private double minBound = -10.0;
 	private double end = 10.0;
@@ -93,6 +113,11 @@ public class CalculatorView extends Application implements Observer {
 	@Override
 	public void start(Stage primaryStage) throws Exception {
 		model.addObserver(this);
+		// changes made within one frame reach update as one notification
+		model.setNotifier(notification -> {
+			nextFrame = notification;
+			frames.start();
+		});
 		stage = primaryStage;
 		BP = new BorderPane();
 		GridPane buttons = new GridPane();
@@ -123,6 +148,8 @@ public class CalculatorView extends Application implements Observer {
 			Stage graphStage = graphStage();
 
 			graphStage.setOnCloseRequest((graphClose) -> {
+				renders.cancel();
+				curves.getChildren().clear();
 				newWindow.setDisable(false);
 				zoom.setDisable(true);
 				window.setDisable(true);
@@ -162,11 +189,7 @@ public class CalculatorView extends Application implements Observer {
 			canvas.getChildren().clear();
 			drawBounds();
 
-			controller.changeMaxX(xMax);
-			controller.changeMinX(xMin);
-			controller.changeMaxY(yMax);
-			controller.changeMinY(yMin);
-			controller.updatePane();
+			controller.changeViewport(xMin, xMax, yMin, yMax, step);
 		});
 
 		parametric.setOnAction((newGraphOptions) -> {
@@ -181,6 +204,8 @@ public class CalculatorView extends Application implements Observer {
 			para = true;
 
 			paraStage.setOnCloseRequest(paraClose -> {
+				renders.cancel();
+				curves.getChildren().clear();
 				newWindow.setDisable(false);
 				zoom.setDisable(true);
 				window.setDisable(true);
@@ -253,6 +278,7 @@ public class CalculatorView extends Application implements Observer {
 	 * the graph
 	 */
 	private void onClose() {
+		renders.shutdown();
 		try {
 			FileOutputStream fileOut = new FileOutputStream(new File("calculator.ser"));
 			ObjectOutputStream objOut = new ObjectOutputStream(fileOut);
@@ -459,7 +485,13 @@ public class CalculatorView extends Application implements Observer {
 				}
 			});
 
-			addRemove.getChildren().addAll(add, remove, runAll, clearAll, saveImg);
+			CheckBox live = new CheckBox("Live");
+			live.setSelected(liveUpdate);
+			live.setOnAction((liveToggle) -> {
+				liveUpdate = live.isSelected();
+			});
+
+			addRemove.getChildren().addAll(add, remove, runAll, clearAll, saveImg, live);
 			grid.add(addRemove, 0, numRows);
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -570,6 +602,9 @@ public class CalculatorView extends Application implements Observer {
 		colorBox.setPrefWidth(100);
 		colorBox.getSelectionModel().select(currIndex);
 
+		CheckBox adaptive = new CheckBox("Adaptive");
+		CheckBox derivative = new CheckBox("d/dx");
+
 		clear.setOnAction((clearPress) -> {
 			input.clear();
 			clear.setDisable(true);
@@ -583,10 +618,23 @@ public class CalculatorView extends Application implements Observer {
 			String text = input.getText();
 			if (!text.isEmpty()) {
 				drawBounds();
-				controller.addSingleVariate(currIndex, text);
+				try {
+					if (derivative.isSelected()) {
+						controller.addDerivative(currIndex, text);
+					} else {
+						controller.addSingleVariate(currIndex, text);
+					}
+				} catch (SyntaxException e) {
+					controller.updatePane();
+					return;
+				}
+				if (adaptive.isSelected()) {
+					controller.changeSampling(currIndex, true);
+				}
 				controller.changeColor(currIndex, colorBox.getSelectionModel().getSelectedItem());
 				clear.setDisable(false);
-				trace.setDisable(false);
+				// the trace follows the equation as typed, not its derivative
+				trace.setDisable(derivative.isSelected());
 
 			}
 		});
@@ -595,12 +643,42 @@ public class CalculatorView extends Application implements Observer {
 			traceStage(currIndex, input.getText(), colorBox.getSelectionModel().getSelectedItem());
 		});
 
+		boolean[] queued = { false };
 		input.textProperty().addListener(listener -> {
 			if (!input.getText().isEmpty()) {
 				run.setDisable(false);
 			} else {
 				run.setDisable(true);
 			}
+			if (liveUpdate && !input.getText().isEmpty() && !queued[0]) {
+				// keystrokes arriving before the next pulse are replotted together
+				queued[0] = true;
+				Platform.runLater(() -> {
+					queued[0] = false;
+					String text = input.getText();
+					if (!liveUpdate || text.isEmpty()) {
+						return;
+					}
+					drawBounds();
+					try {
+						if (derivative.isSelected()) {
+							controller.addDerivative(currIndex, text);
+						} else {
+							controller.editSingleVariate(currIndex, text);
+						}
+					} catch (SyntaxException e) {
+						// half typed, keep the last graph
+						controller.updatePane();
+						return;
+					}
+					if (adaptive.isSelected()) {
+						controller.changeSampling(currIndex, true);
+					}
+					controller.changeColor(currIndex, colorBox.getSelectionModel().getSelectedItem());
+					clear.setDisable(false);
+					trace.setDisable(derivative.isSelected());
+				});
+			}
 		});
 
 		colorBox.setOnAction((e) -> {
@@ -615,7 +693,19 @@ public class CalculatorView extends Application implements Observer {
 			controller.updatePane();
 		});
 
-		hbox.getChildren().addAll(input, run, clear, trace, colorBox);
+		adaptive.setOnAction((e) -> {
+			if (!input.getText().isEmpty()) {
+				drawBounds();
+				controller.changeSampling(currIndex, adaptive.isSelected());
+			}
+		});
+
+		derivative.setOnAction((e) -> {
+			// plots the equation or its derivative again, as Run does
+			run.fire();
+		});
+
+		hbox.getChildren().addAll(input, run, clear, trace, colorBox, adaptive, derivative);
 		return hbox;
 	}
 
@@ -628,6 +718,7 @@ public class CalculatorView extends Application implements Observer {
 	 * @param color    : the color of the current equation
 	 */
 	public void traceStage(int index, String equation, String color) {
+		// shares the compiled expression with the graph and the tangent through the expression cache
 		Function funct = new SingleVariate(equation, xMin, xMax);
 		Stage traceStage = new Stage();
 		GridPane grid = new GridPane();
@@ -663,8 +754,9 @@ public class CalculatorView extends Application implements Observer {
 
 		tangent.setOnAction(event -> {
 			tangentBox.setVisible(tangent.isSelected());
-			tangentEq.setText(controller.makeTangent(equation, String.valueOf(dotLocs.get(index))));
-			tanHolder.set(index, controller.makeTangent(equation, String.valueOf(dotLocs.get(index))));
+			String tangentText = controller.makeTangent(equation, String.valueOf(dotLocs.get(index)));
+			tangentEq.setText(tangentText);
+			tanHolder.set(index, tangentText);
 		});
 		addDot(index, 0.0, Math.round((funct.calc(0.0).getY() * 100)) / 100.0, color);
 
@@ -796,13 +888,8 @@ public class CalculatorView extends Application implements Observer {
 			lastXTrack = xTrack;
 			lastYTrack = yTrack;
 
-			controller.changeMaxX(xMax);
-			controller.changeMinX(xMin);
-			controller.changeMaxY(yMax);
-			controller.changeMinY(yMin);
-			controller.updatePane();
-			
 			drawBounds();
+			controller.changeViewport(xMin, xMax, yMin, yMax, step);
 		});
 	}
 
@@ -835,6 +922,8 @@ public class CalculatorView extends Application implements Observer {
 		yBoundMax.relocate(canvas.getWidth() / 2 + 5, canvas.getHeight() - 15);
 
 		canvas.getChildren().addAll(xBoundMin, xBoundMax, yBoundMin, yBoundMax);
+		// the last curves stay up until the render of the new bounds replaces them
+		canvas.getChildren().add(curves);
 	}
 
 	/**
@@ -892,13 +981,8 @@ public class CalculatorView extends Application implements Observer {
 					yMax = Double.parseDouble(maxYField.getText());
 					step = Double.parseDouble(stepField.getText());
 
-					controller.changeMinX(xMin);
-					controller.changeMaxX(xMax);
-					controller.changeMinY(yMin);
-					controller.changeMaxY(yMax);
-					controller.changeStep(step);
-					controller.updatePane();
-					
+					controller.changeViewport(xMin, xMax, yMin, yMax, step);
+
 					drawBounds();
 
 					if (!para) {
@@ -953,88 +1037,99 @@ public class CalculatorView extends Application implements Observer {
 		return bound;
 	}
 
+	/**
+	 * Draws a curve through samples in order, lifting the pen at undefined
+	 * samples and where the curve runs along the top or bottom edge
+	 *
+	 * @param path    the path to add the segments to
+	 * @param samples the samples, in the order the curve passes them
+	 */
+	private void drawSamples(Path path, SampleBuffer samples) {
+		double lastX = Double.NaN;
+		double lastYPlace = Double.NaN;
+		for (int k = 0; k < samples.size(); k++) {
+			double x = xRat * (samples.x(k) - xMin);
+			double yPlace = (yRat * yMax) - (yRat * samples.y(k));
+			if (Double.isNaN(x) || Double.isNaN(yPlace)) {
+				lastX = Double.NaN;
+				continue;
+			}
+			yPlace = Math.max(0.0, Math.min(CANHIG, yPlace));
+			if (!Double.isNaN(lastX) && !(yPlace == lastYPlace && (yPlace == 0.0 || yPlace == CANHIG))) {
+				path.getElements().add(new MoveTo(lastX, lastYPlace));
+				path.getElements().add(new LineTo(x, yPlace));
+			}
+			lastX = x;
+			lastYPlace = yPlace;
+		}
+	}
+
 	/**
 	 * Updates the graph when functions or equations are input on the graph input
 	 * window, this also allows the graph to move dynamically if the pane is
-	 * shifted.
+	 * shifted. The curves are sampled on the render workers and drawn once the
+	 * latest request is done, so a drag never waits for a heavy function.
 	 */
 	@Override
 	public void update(Observable o, Object arg) {
-		CalculatorModel model = (CalculatorModel) o;
-		ArrayList<Function> functs = (ArrayList) arg;
+		List<Function> functs = new ArrayList<>(((ModelChange) arg).getFunctions());
+		// the workers only read this copy of the viewport, the handlers keep changing the fields
+		final double minBound = this.minBound;
+		final double maxBound = this.maxBound;
+		final double step = this.step;
+		final double xMin = this.xMin;
+		final double xRat = this.xRat;
+		final double yRat = this.yRat;
+		final double yMin = this.yMin;
+		final double yMax = this.yMax;
+		final TileCache tiles = this.tiles;
+		// a step finer than the pixels is sampled per pixel column instead of at every step
+		final boolean perPixel = PixelSampler.isFinerThanPixels(step, xRat);
+		renders.submit(functs, funct -> {
+			SampleBuffer curve = new SampleBuffer();
+			if (funct.isAdaptive() && minBound < maxBound) {
+				AdaptiveSampler.sample(funct, minBound, maxBound, xRat, yRat, yMin, yMax, curve);
+				PixelSampler.decimate(curve, xMin, xRat);
+			} else if (perPixel) {
+				PixelSampler.sample(funct, minBound, maxBound, CANWID, xMin, xRat, tiles, curve);
+			} else {
+				// the step lattice stays put as the graph is dragged, so most of it comes from the cache
+				tiles.sample(funct, minBound, maxBound, step, curve);
+				IntervalSampler.breakAtPoles(funct, curve);
+			}
+			return curve;
+		}, samples -> drawCurves(functs, samples));
+	}
+
+	/**
+	 * Replaces the curves and dots on the graph with those of a finished render,
+	 * on the JavaFX application thread
+	 *
+	 * @param functs the functions, with null for the empty rows
+	 * @param samples the samples of each function, in the same order
+	 */
+	private void drawCurves(List<Function> functs, List<SampleBuffer> samples) {
+		List<Node> drawn = new ArrayList<>();
 		int dotIndex = 0;
-		for (Function funct : functs) {
+		for (int i = 0; i < functs.size(); i++) {
+			Function funct = functs.get(i);
 			if (funct != null) {
-				double start = this.start;
-				double end = this.end;
-				start = prepBounds(start, funct);
-				end = prepBounds(end, funct);
-
-				double x = start * xRat;
-				double lastX = 0.0;
-				Point lastP = null;
-				double lastYPlace = 0.0;
-				double yPlace = 0.0;
-				boolean print = true;
 				Path path = new Path();
 				path.setStroke(Color.valueOf(funct.getColor()));
-				for (double i = minBound; i <= maxBound; i += step) {
-					i = Math.round((i * 10)) / 10.0;
-					Point p = funct.calc(i);
-					if (lastP != null) {
-						if (p.getX() < lastP.getX()) {
-							x -= (model.getStep() * xRat);
-							x = Math.round((x * 10)) / 10.0;
-						} else {
-							x += (model.getStep() * xRat);
-							x = Math.round((x * 10)) / 10.0;
-						}
-					}
-					Double y = p.getY();
-					yPlace = (yRat * yMax) - (yRat * y);
-					if (yPlace <= 0) {
-						y = yMax;
-						yPlace = 0.0;
-						if (yPlace == lastYPlace) {
-							print = false;
-						}
-
-					} else if (yPlace >= CANHIG) {
-						y = yMin;
-						yPlace = CANHIG;
-						if (yPlace == lastYPlace) {
-							print = false;
-						}
+				drawSamples(path, samples.get(i));
+				drawn.add(path);
 
-					} else {
-						print = true;
-					}
-
-					if (!Double.isNaN(y)) {
-						if (i != minBound && print) {
-							path.getElements().add(new MoveTo((lastX), lastYPlace));
-							path.getElements().add(new LineTo((x), yPlace));
-						}
-					} else {
-						path.getElements().add(new MoveTo((x), yRat * y));
-					}
-					lastYPlace = yPlace;
-
-					lastX = x;
-					lastP = p;
-				}
-
-				canvas.getChildren().add(path);
-				if (dotHolder.get(dotIndex) != null && !canvas.getChildren().contains(dotHolder.get(dotIndex))) {
+				if (dotHolder.get(dotIndex) != null) {
 					addDot(dotIndex, dotLocs.get(dotIndex), funct.calc(dotLocs.get(dotIndex)).getY(), funct.getColor());
 					if (funct.calc(dotLocs.get(dotIndex)).getY() >= yMin
 							&& funct.calc(dotLocs.get(dotIndex)).getY() <= yMax) {
-						canvas.getChildren().add(dotHolder.get(dotIndex));
+						drawn.add(dotHolder.get(dotIndex));
 					}
 				}
 				dotIndex++;
 			}
 		}
-
+		curves.getChildren().setAll(drawn);
 	}
+
 }
\ No newline at end of file
@@ -19,9 +19,10 @@ public class ControllerTest {
 	void testTangents() {
 		CalculatorController controller = new CalculatorController(new CalculatorModel());
 		
-		Assertions.assertTrue(controller.makeTangent("x^2", "0.0").equals("0.1 * x + 0.0"));
-		Assertions.assertTrue(controller.makeTangent("x^2", "1.0").equals("2.1 * x + -1.1"));
-		Assertions.assertTrue(controller.makeTangent("x^2", "-3.0").equals("-5.9 * x + -8.7"));
+		Assertions.assertTrue(controller.makeTangent("x^2", "0.0").equals("0.0 * x + 0.0"));
+		Assertions.assertTrue(controller.makeTangent("x^2", "1.0").equals("2.0 * x + -1.0"));
+		Assertions.assertTrue(controller.makeTangent("x^2", "-3.0").equals("-6.0 * x + -9.0"));
+		Assertions.assertTrue(controller.makeTangent("max(x, 0) ^ 2", "1.0").equals("2.0 * x + -1.0"));
 	}
 	
 	@Test
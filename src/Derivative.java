@@ -0,0 +1,91 @@
+package src;
+
+import java.util.Arrays;
+
+/**
+ * Derivative is the graph of f'(x) for an equation f, using its symbolic
+ * derivative
+ */
+public class Derivative extends Function {
+
+    private static final long serialVersionUID = 1L;
+    private Expression expr;
+    private String source;
+    private transient volatile boolean underivable;    // set once differentiating has failed
+
+    /** Constructor for the Derivative
+     * @param expr The equation to differentiate
+     * @param minRange The smallest x value
+     * @param maxRange The largest x value
+     * @throws SyntaxException if the equation cannot be parsed
+     */
+    public Derivative(String expr, double minRange, double maxRange) {
+        super(minRange, maxRange);
+        this.expr = ExpressionCache.shared().get(expr);
+        this.source = expr;
+    }
+
+    @Override
+    void calcInto(double x, double[] xs, double[] ys, int index) {
+        xs[index] = x;
+        if (this.underivable) {
+            ys[index] = Double.NaN;
+            return;
+        }
+        try {
+            ys[index] = expr.derivative().valueAt(x);
+        } catch (ExpressionException expressionException) {
+            this.underivable = true;
+            ys[index] = Double.NaN;
+        }
+    }
+
+    @Override
+    void calc(double[] grid, double[] xs, double[] ys) {
+        System.arraycopy(grid, 0, xs, 0, grid.length);
+        try {
+            expr.derivative().evaluate(grid, ys);
+        } catch (ExpressionException expressionException) {
+            Arrays.fill(ys, 0, grid.length, Double.NaN);
+        }
+    }
+
+    @Override
+    void calcGrid(double start, double step, double[] xs, double[] ys) {
+        for (int k = 0; k < xs.length; k++) {
+            xs[k] = start + k * step;
+        }
+        try {
+            expr.derivative().evaluateGrid(start, step, ys);
+        } catch (ExpressionException expressionException) {
+            Arrays.fill(ys, Double.NaN);
+        }
+    }
+
+    @Override
+    boolean bound(double from, double to, double[] out) {
+        try {
+            expr.derivative().evaluateInterval(from, to, out);
+            return true;
+        } catch (ExpressionException expressionException) {
+            return false;
+        }
+    }
+
+    @Override
+    Object tileKey() {
+        return Arrays.asList("d/dx", this.expr);
+    }
+
+    /** Returns the equation that is differentiated
+     * @return The equation as typed
+     */
+    String source() {
+        return this.source;
+    }
+
+    @Override
+    public String toString() {
+        return "d/dx(" + source + ")";
+    }
+}
@@ -0,0 +1,230 @@
+package src;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Differentiator builds the syntax tree of the derivative of an expression
+ * with respect to its variable.
+ * <p>
+ * The rules cover every operator and built-in function; a registered function
+ * is differentiable if it was registered with its derivative. Terms that are
+ * known to be zero or one are dropped while the tree is built, so the product
+ * rule on 2 * x gives 2 rather than 0 * x + 2 * 1. That is exact for the
+ * derivative, even where the unsimplified form would be NaN. The new tree
+ * shares subtrees of the input, which must not be modified afterwards.
+ */
+final class Differentiator {
+
+    private static final double LN_10 = Math.log(10.0);
+
+    private final Map<ASTNode, ASTNode> derivatives = new IdentityHashMap<>();
+
+    private Differentiator() {
+    }
+
+    /** Differentiates a syntax tree
+     * @param root The root of the tree, which may be a hash-consed DAG
+     * @return The root of the derivative tree, not yet simplified
+     * @throws ExpressionException if the tree calls a function without a known derivative
+     */
+    static ASTNode differentiate(ASTNode root) throws ExpressionException {
+        Differentiator differentiator = new Differentiator();
+        for (ASTNode node : ASTNode.postOrder(root)) {
+            differentiator.derivatives.put(node, differentiator.deriveNode(node));
+        }
+        return differentiator.derive(root);
+    }
+
+    /** Returns the derivative of a node, which is built before any node above it
+     * @param node The node
+     * @return The derivative of the node
+     */
+    private ASTNode derive(ASTNode node) {
+        return this.derivatives.get(node);
+    }
+
+    private ASTNode deriveNode(ASTNode node) throws ExpressionException {
+        ASTNode u = node.getLeft();
+        ASTNode v = node.getRight();
+        switch (node.getTokenType()) {
+            case NUM:
+                return ASTNode.number(0.0);
+            case VAR:
+                return ASTNode.number(1.0);
+            case PLUS:
+                return add(derive(u), derive(v));
+            case MINUS:
+                return sub(derive(u), derive(v));
+            case MUL:
+                return add(mul(derive(u), v), mul(u, derive(v)));
+            case DIV:
+                return deriveQuotient(u, v);
+            case EXP:
+                return derivePower(node, u, v);
+            case FUNC:
+                return mul(deriveFunction(node, u), derive(u));
+            default:
+                throw new ExpressionException("NO DERIVATIVE FOR: " + node.getTokenVal());
+        }
+    }
+
+    /** Applies the quotient rule, or divides by a constant denominator
+     * @param u The numerator
+     * @param v The denominator
+     * @return The derivative of u / v
+     * @throws ExpressionException
+     */
+    private ASTNode deriveQuotient(ASTNode u, ASTNode v) throws ExpressionException {
+        ASTNode du = derive(u);
+        ASTNode dv = derive(v);
+        if (isNumber(dv, 0.0)) {
+            return div(du, v);
+        }
+        return div(sub(mul(du, v), mul(u, dv)), pow(v, ASTNode.number(2.0)));
+    }
+
+    /** Differentiates u ^ v, with the power rule when the exponent is constant
+     * @param node The EXP node
+     * @param u The base
+     * @param v The exponent
+     * @return The derivative of u ^ v
+     * @throws ExpressionException
+     */
+    private ASTNode derivePower(ASTNode node, ASTNode u, ASTNode v) throws ExpressionException {
+        ASTNode du = derive(u);
+        ASTNode dv = derive(v);
+        if (isNumber(dv, 0.0)) {
+            // v * u^(v - 1) * u'
+            return mul(mul(v, pow(u, sub(v, ASTNode.number(1.0)))), du);
+        }
+        if (isNumber(du, 0.0)) {
+            // u^v * ln(u) * v'
+            return mul(mul(node, func(BuiltinFunction.LN, u)), dv);
+        }
+        // u^v * (v' * ln(u) + v * u' / u)
+        return mul(node, add(mul(dv, func(BuiltinFunction.LN, u)), div(mul(v, du), u)));
+    }
+
+    /** Returns the derivative of the outer function of a FUNC node at its argument
+     * @param node The FUNC node
+     * @param u The argument
+     * @return f'(u), to be multiplied by u'
+     * @throws ExpressionException if the function has no known derivative
+     */
+    private ASTNode deriveFunction(ASTNode node, ASTNode u) throws ExpressionException {
+        BuiltinFunction builtin = node.getFunction();
+        if (builtin == null) {
+            return deriveUserFunction(node, u);
+        }
+        ASTNode one = ASTNode.number(1.0);
+        switch (builtin) {
+            case EXP:
+                return node;
+            case SIN:
+                return func(BuiltinFunction.COS, u);
+            case COS:
+                return neg(func(BuiltinFunction.SIN, u));
+            case TAN:
+                return div(one, pow(func(BuiltinFunction.COS, u), ASTNode.number(2.0)));
+            case ASIN:
+                return div(one, pow(sub(one, pow(u, ASTNode.number(2.0))), ASTNode.number(0.5)));
+            case ACOS:
+                return neg(div(one, pow(sub(one, pow(u, ASTNode.number(2.0))), ASTNode.number(0.5))));
+            case ATAN:
+                return div(one, add(one, pow(u, ASTNode.number(2.0))));
+            case LN:
+                return div(one, u);
+            case LOG:
+                return div(one, mul(u, ASTNode.number(LN_10)));
+            default:
+                throw new ExpressionException("NO DERIVATIVE FOR: " + node.getTokenVal());
+        }
+    }
+
+    private static ASTNode deriveUserFunction(ASTNode node, ASTNode u) throws ExpressionException {
+        UserFunction function = node.getUserFunction();
+        UserFunction derivative = function == null ? null : function.derivative();
+        if (derivative == null) {
+            throw new ExpressionException("NO DERIVATIVE FOR: " + node.getTokenVal());
+        }
+        ASTNode call = new ASTNode(Lexer.newToken(Lexer.TokenType.FUNC, derivative.name()));
+        call.setUserFunction(derivative);
+        call.setLeft(u);
+        return call;
+    }
+
+    private static ASTNode add(ASTNode a, ASTNode b) {
+        if (isNumber(a, 0.0)) {
+            return b;
+        } else if (isNumber(b, 0.0)) {
+            return a;
+        }
+        return operator(Lexer.TokenType.PLUS, "+", a, b);
+    }
+
+    private static ASTNode sub(ASTNode a, ASTNode b) {
+        if (isNumber(b, 0.0)) {
+            return a;
+        } else if (isNumber(a, 0.0)) {
+            return neg(b);
+        }
+        return operator(Lexer.TokenType.MINUS, "-", a, b);
+    }
+
+    private static ASTNode mul(ASTNode a, ASTNode b) {
+        if (isNumber(a, 0.0) || isNumber(b, 0.0)) {
+            return ASTNode.number(0.0);
+        } else if (isNumber(a, 1.0)) {
+            return b;
+        } else if (isNumber(b, 1.0)) {
+            return a;
+        }
+        return operator(Lexer.TokenType.MUL, "*", a, b);
+    }
+
+    private static ASTNode div(ASTNode a, ASTNode b) {
+        if (isNumber(a, 0.0)) {
+            return ASTNode.number(0.0);
+        } else if (isNumber(b, 1.0)) {
+            return a;
+        }
+        return operator(Lexer.TokenType.DIV, "/", a, b);
+    }
+
+    private static ASTNode pow(ASTNode a, ASTNode b) {
+        if (isNumber(b, 1.0)) {
+            return a;
+        } else if (isNumber(b, 0.0)) {
+            return ASTNode.number(1.0);
+        }
+        return operator(Lexer.TokenType.EXP, "^", a, b);
+    }
+
+    private static ASTNode neg(ASTNode a) {
+        return mul(ASTNode.number(-1.0), a);
+    }
+
+    private static ASTNode func(BuiltinFunction function, ASTNode argument) {
+        ASTNode node = new ASTNode(Lexer.newToken(Lexer.TokenType.FUNC, function.functionName()));
+        node.setFunction(function);
+        node.setLeft(argument);
+        return node;
+    }
+
+    private static ASTNode operator(Lexer.TokenType type, String symbol, ASTNode left, ASTNode right) {
+        ASTNode node = new ASTNode(Lexer.newToken(type, symbol));
+        node.setLeft(left);
+        node.setRight(right);
+        return node;
+    }
+
+    /** Checks if a node is a NUM with the given value, either sign of zero matching zero
+     * @param node The node to check
+     * @param value The value to compare to
+     * @return True if the node is that number
+     */
+    private static boolean isNumber(ASTNode node, double value) {
+        return node.getTokenType() == Lexer.TokenType.NUM && node.getNumber() == value;
+    }
+}
@@ -1,154 +1,289 @@
 package src;
 
 import java.io.Serializable;
+import java.util.function.DoubleUnaryOperator;
 
 /**
  * Expression implements a mathematical expression to evaluate
+ * <p>
+ * An Expression is safe to evaluate from several threads at once, as the
+ * render workers of a RenderPipeline do with the expressions the
+ * ExpressionCache shares. The Program and Polynomial are built in the
+ * constructor and never change. The bytecode and the derivative are built
+ * under a lock the first time they are needed and published through volatile
+ * fields. A saved expression is compiled again when it is read, by
+ * readResolve.
  */
 public class Expression implements Serializable {
 
     private static final long serialVersionUID = 1L;
-    private ASTNode expr;
+    private SyntaxTree tree;    // the simplified syntax tree, in array form
     private String expression;
+    private final transient Program program;    // null if a saved tree no longer compiles
+    private final transient Polynomial polynomial;    // null unless expr is a polynomial in the variable
+    private transient int calls;    // racy between threads, it only decides when to compile
+    private transient volatile DoubleUnaryOperator compiled;    // set once the expression is hot
+    private transient volatile Expression derivative;
 
     /** Constructor for the expression
      * @param expression The string of the expression
+     * @throws SyntaxException if the expression cannot be parsed
      */
     public Expression(String expression) {
+        this(expression, new Parser(new Lexer().tokenize(expression)).parseTokens());
+    }
+
+    /** Constructor for an expression from a tree already parsed, as by an IncrementalParser
+     * @param expression The string of the expression
+     * @param parsed The syntax tree of the string, which is left unchanged
+     */
+    Expression(String expression, SyntaxTree parsed) {
+        this(expression, parsed.root());
+    }
+
+    /** Constructor for an expression built from a syntax tree
+     * @param expression The string of the expression
+     * @param tree The syntax tree, which is simplified in place
+     */
+    private Expression(String expression, ASTNode tree) {
         this.expression = expression;
-        Lexer lex = new Lexer();
-        Parser parser = new Parser(lex.tokenize(expression));
-        this.expr = parser.parseTokens();
+        ASTNode expr = prepare(tree);
+        this.polynomial = Polynomial.fromTree(expr);
+        this.program = Program.compile(expr);
+        this.tree = SyntaxTree.of(expr);
+    }
+
+    /** Constructor for an expression with its compiled forms
+     * @param expression The string of the expression
+     * @param tree The simplified syntax tree, or null if the source no longer parses
+     * @param polynomial The polynomial form, or null
+     * @param program The compiled program, or null if the tree does not compile
+     */
+    private Expression(String expression, SyntaxTree tree, Polynomial polynomial, Program program) {
+        this.expression = expression;
+        this.tree = tree;
+        this.polynomial = polynomial;
+        this.program = program;
+    }
+
+    /** Simplifies a parsed syntax tree and shares its equal subtrees
+     * @param tree The syntax tree, which is simplified in place
+     * @return The root of the tree to compile
+     */
+    private static ASTNode prepare(ASTNode tree) {
+        ASTNode expr = Simplifier.simplify(tree);
+        if (HashConser.isEnabled()) {
+            expr = new HashConser().intern(expr);
+        }
+        return expr;
     }
 
-    /** Evaluates the Syntax tree
+    /** Evaluates the compiled expression
      * @return The result of the evaluation
      * @throws ExpressionException
      */
     public double evaluate() throws ExpressionException {
-        return evaluateNode(this.expr);
+        Program program = program();
+        if (program.usesVariable()) {
+            throw new ExpressionException("Variable in expression when none expected!");
+        }
+        return program.evaluate(0.0);
     }
 
-    /** Evaluates the Syntax tree with the given variable value
+    /** Evaluates the compiled expression with the given variable value
      * @param val The value to evaluate the variables at
      * @return The result of the Evaluation
      * @throws ExpressionException
      */
     public double evaluate(double val) throws ExpressionException {
-        return evaluateNode(this.expr, val);
+        Polynomial polynomial = polynomial();
+        if (polynomial != null && Double.isFinite(val)) {
+            return polynomial.evaluate(val);
+        }
+        DoubleUnaryOperator compiled = this.compiled;
+        if (compiled != null) {
+            return compiled.applyAsDouble(val);
+        }
+        if (ExpressionJit.isHot(++this.calls)) {
+            jit();
+        }
+        return program().evaluate(val);
     }
 
-    /** Returns the value of the string as a double
-     * @param num The value to parse
-     * @return The numeric value represented by the string
+    /** Evaluates the compiled expression with the given variable value, without throwing
+     * <p>
+     * Once the expression is compiled, no objects are allocated, so graphs can
+     * be sampled point by point without creating garbage.
+     * @param val The value to evaluate the variables at
+     * @return The result of the evaluation, or NaN if the expression cannot be evaluated
      */
-    private static double numValue(String num) {
-        return Double.parseDouble(num);
+    double valueAt(double val) {
+        if (this.program == null) {
+            return Double.NaN;
+        }
+        try {
+            return evaluate(val);
+        } catch (ExpressionException e) {
+            return Double.NaN;
+        }
     }
 
-    /** Evaluates the Syntax tree
-     * @param node The Syntax tree to evaluate
-     * @return The result of the evaluation
+    /** Evaluates the expression and its derivative together in one pass
+     * @param val The value to evaluate the variables at
+     * @param out Filled with f(val) at index 0 and f'(val) at index 1
      * @throws ExpressionException
      */
-    private static double evaluateNode(ASTNode node) throws ExpressionException {
-        double left, right;
-        switch (node.getTokenType()) {
-            case NUM:
-                return numValue(node.getTokenVal());
-            case PLUS:
-                left = evaluateNode(node.getLeft());
-                right = evaluateNode(node.getRight());
-                return left + right;
-            case MINUS:
-                left = evaluateNode(node.getLeft());
-                right = evaluateNode(node.getRight());
-                return left - right;
-            case MUL:
-                left = evaluateNode(node.getLeft());
-                right = evaluateNode(node.getRight());
-                return left * right;
-            case DIV:
-                left = evaluateNode(node.getLeft()) ;
-                right = evaluateNode(node.getRight() );
-                return left / right;
-            case EXP:
-                left = evaluateNode(node.getLeft());
-                right = evaluateNode(node.getRight());
-                return Math.pow(left, right);
-            case VAR:
-                throw new ExpressionException("Variable in expression when none expected!");
-            case FUNC:
-                left = evaluateNode(node.getLeft());
-                return evaluateFunc(node.getTokenVal(), left);
-            default:
-                throw new ExpressionException("Invalid TokenType");
-        }
-    }
-    private static double evaluateNode(ASTNode node, double variable) throws ExpressionException {
-        double left, right;
-        switch (node.getTokenType()) {
-            case NUM:
-                return numValue(node.getTokenVal());
-            case PLUS:
-                left = evaluateNode(node.getLeft(), variable);
-                right = evaluateNode(node.getRight(), variable);
-                return left + right;
-            case MINUS:
-                left = evaluateNode(node.getLeft(), variable);
-                right = evaluateNode(node.getRight(), variable);
-                return left - right;
-            case MUL:
-                left = evaluateNode(node.getLeft(), variable);
-                right = evaluateNode(node.getRight(), variable);
-                return left * right;
-            case DIV:
-                left = evaluateNode(node.getLeft(), variable);
-                right = evaluateNode(node.getRight(), variable);
-                return left / right;
-            case EXP:
-                left = evaluateNode(node.getLeft(), variable);
-                right = evaluateNode(node.getRight(), variable);
-                return Math.pow(left, right);
-            case VAR:
-                return variable;
-            case FUNC:
-                left = evaluateNode(node.getLeft(), variable);
-                return evaluateFunc(node.getTokenVal(), left);
-            default:
-                throw new ExpressionException("Invalid TokenType");
-        }
-    }
-
-    /** Evaluates a named function
-     * @param tokenVal The string representing the  function to call
-     * @param left The left node
-     * @return The result of the function evaluation
+    public void evaluateDual(double val, double[] out) throws ExpressionException {
+        program().evaluateDual(val, out);
+    }
+
+    /** Bounds the expression over a range of the variable with interval arithmetic
+     * @param lo The lower end of the range
+     * @param hi The upper end of the range
+     * @param out Filled with a lower bound at index 0 and an upper bound at index 1;
+     *            the lower bound is above the upper one if the expression is defined nowhere in the range
+     * @throws ExpressionException
+     */
+    public void evaluateInterval(double lo, double hi, double[] out) throws ExpressionException {
+        program().evaluateInterval(lo, hi, out);
+    }
+
+    /** Evaluates the expression at every value of a grid
+     * @param vals The values to evaluate the variables at
+     * @param out The array to fill with the results, at least as long as vals
      * @throws ExpressionException
      */
-    private static double evaluateFunc(String tokenVal, double left) throws ExpressionException {
-        switch (tokenVal) {
-            case "e^":
-                return Math.exp(left);
-            case "sin":
-                return Math.sin(left);
-            case "cos":
-                return Math.cos(left);
-            case "tan":
-                return Math.tan(left);
-            case "sin^-1":
-                return Math.asin(left);
-            case "cos^-1":
-                return Math.acos(left);
-            case "tan^-1":
-                return Math.atan(left);
-            case "ln":
-                return Math.log(left);
-            case "log":
-                return Math.log10(left);
-            default:
-                throw new ExpressionException("UNKNOWN FUNCTION: " + tokenVal);
+    public void evaluate(double[] vals, double[] out) throws ExpressionException {
+        if (vals.length == 0) {
+            return;
+        }
+        Polynomial polynomial = polynomial();
+        if (polynomial == null) {
+            program().evaluate(vals, out);
+            return;
+        }
+        polynomial.evaluate(vals, out);
+        for (int i = 0; i < vals.length; i++) {
+            if (!Double.isFinite(vals[i])) {
+                out[i] = program().evaluate(vals[i]);
+            }
+        }
+    }
+
+    /** Evaluates the expression on the evenly stepped grid start + k * step
+     * @param start The first value of the variable
+     * @param step The distance between values
+     * @param out The array to fill, one result per grid point
+     * @throws ExpressionException
+     */
+    public void evaluateGrid(double start, double step, double[] out) throws ExpressionException {
+        Polynomial polynomial = polynomial();
+        if (polynomial != null && Double.isFinite(start) && Double.isFinite(start + out.length * step)) {
+            polynomial.evaluateGrid(start, step, out);
+            return;
+        }
+        double[] vals = new double[out.length];
+        for (int k = 0; k < vals.length; k++) {
+            vals[k] = start + k * step;
+        }
+        evaluate(vals, out);
+    }
+
+    /** Returns the derivative of the expression, built and compiled on first use
+     * @return The simplified derivative with respect to the variable
+     * @throws ExpressionException if the expression calls a function without a known derivative
+     */
+    public Expression derivative() throws ExpressionException {
+        Expression derivative = this.derivative;
+        if (derivative == null) {
+            synchronized (this) {
+                derivative = this.derivative;
+                if (derivative == null) {
+                    derivative = new Expression("d/dx(" + this.expression + ")", Differentiator.differentiate(tree()));
+                    this.derivative = derivative;
+                }
+            }
+        }
+        return derivative;
+    }
+
+    /** Generates the bytecode of the expression, once however many threads find it hot
+     * @return The compiled operator, or null if the program cannot be compiled
+     * @throws ExpressionException
+     */
+    private DoubleUnaryOperator jit() throws ExpressionException {
+        DoubleUnaryOperator compiled = this.compiled;
+        if (compiled == null) {
+            synchronized (this) {
+                compiled = this.compiled;
+                if (compiled == null) {
+                    compiled = ExpressionJit.compile(program());
+                    this.compiled = compiled;
+                }
+            }
+        }
+        return compiled;
+    }
+
+    /** Checks if the expression has been compiled to bytecode
+     * @return True if evaluation runs on the generated class
+     */
+    boolean isJitCompiled() {
+        return this.compiled != null;
+    }
+
+    /** Returns a view of the syntax tree of the expression
+     * @return The root of the tree, or null if a saved expression no longer parses
+     */
+    ASTNode tree() {
+        return this.tree == null ? null : this.tree.root();
+    }
+
+    /** Returns the compiled program
+     * @return The compiled Program
+     * @throws ExpressionException if a saved expression no longer compiles
+     */
+    private Program program() throws ExpressionException {
+        if (this.program == null) {
+            throw new ExpressionException("Invalid expression: " + this.expression);
+        }
+        return this.program;
+    }
+
+    /** Returns the polynomial form of the expression
+     * @return The Polynomial, or null if the expression is not a polynomial
+     * @throws ExpressionException if a saved expression no longer compiles
+     */
+    private Polynomial polynomial() throws ExpressionException {
+        program();
+        return this.polynomial;
+    }
+
+    /** Replaces a saved expression by one compiled again, parsing its source again if it was saved
+     * without a SyntaxTree
+     * <p>
+     * If the source no longer parses or compiles, for example because a
+     * registered function is missing, evaluation throws instead.
+     * @return The compiled expression
+     */
+    private Object readResolve() {
+        SyntaxTree tree = this.tree;
+        if (tree == null) {
+            try {
+                tree = SyntaxTree.of(prepare(new Parser(new Lexer().tokenize(this.expression)).parseTokens()));
+            } catch (SyntaxException e) {
+                tree = null;
+            }
+        }
+        ASTNode expr = tree == null ? null : tree.root();
+        if (expr != null) {
+            try {
+                return new Expression(this.expression, tree, Polynomial.fromTree(expr), Program.compile(expr));
+            } catch (IllegalArgumentException e) {
+                // a function of the saved tree is no longer registered
+            }
         }
+        return new Expression(this.expression, tree, null, null);
     }
 
     /** To string for Expression
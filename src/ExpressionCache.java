@@ -0,0 +1,162 @@
+package src;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * ExpressionCache keeps recently used Expressions, so an equation that is
+ * evaluated again, as the trace window does on every arrow press, is not
+ * lexed, parsed and compiled again.
+ * <p>
+ * Entries are keyed by the normalized source text and evicted least recently
+ * used first. The size of the shared cache is read from the system property
+ * "calculator.cache.size". Expressions bind registered functions when they are
+ * parsed, so a cached Expression keeps the function it was built with.
+ */
+final class ExpressionCache {
+
+    private static final int DEFAULT_CAPACITY = 64;
+    private static final ExpressionCache SHARED =
+            new ExpressionCache(Math.max(1, Integer.getInteger("calculator.cache.size", DEFAULT_CAPACITY)));
+
+    private final int capacity;
+    private final Map<String, Expression> entries;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /** Constructor for the ExpressionCache
+     * @param capacity The largest number of Expressions to keep
+     */
+    ExpressionCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Cache capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<String, Expression>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Expression> eldest) {
+                if (size() > ExpressionCache.this.capacity) {
+                    ExpressionCache.this.evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /** Returns the cache shared by the controller, the model and the view
+     * @return The shared cache
+     */
+    static ExpressionCache shared() {
+        return SHARED;
+    }
+
+    /** Returns the Expression for a source text, building it on a miss
+     * @param source The text of the expression
+     * @return The cached or newly built Expression
+     * @throws SyntaxException if the expression cannot be parsed; nothing is cached
+     */
+    Expression get(String source) {
+        return get(source, () -> new Expression(source));
+    }
+
+    /** Returns the Expression for a source text, building it with the given parse on a miss
+     * @param source The text of the expression
+     * @param build Builds the Expression for the text, such as from an incremental parse
+     * @return The cached or newly built Expression
+     * @throws SyntaxException if the expression cannot be parsed; nothing is cached
+     */
+    Expression get(String source, Supplier<Expression> build) {
+        String key = normalize(source);
+        synchronized (this) {
+            Expression cached = this.entries.get(key);
+            if (cached != null) {
+                this.hits++;
+                return cached;
+            }
+            this.misses++;
+        }
+        // built outside the lock, a racing miss for the same key only costs a parse
+        Expression built = build.get();
+        synchronized (this) {
+            Expression cached = this.entries.putIfAbsent(key, built);
+            return cached != null ? cached : built;
+        }
+    }
+
+    /** Normalizes the source text of an expression
+     * <p>
+     * Runs of whitespace become one space, and whitespace next to parentheses
+     * and commas is dropped, since the lexer separates those anyway. Spaces
+     * around the other operators are kept because they separate tokens.
+     * @param source The text of the expression
+     * @return The key for the text
+     */
+    static String normalize(String source) {
+        StringBuilder sb = new StringBuilder(source.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < source.length(); i++) {
+            char c = source.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = true;
+                continue;
+            }
+            boolean separator = c == '(' || c == ')' || c == ',';
+            if (pendingSpace && !separator && sb.length() > 0 && !isSeparator(sb.charAt(sb.length() - 1))) {
+                sb.append(' ');
+            }
+            pendingSpace = false;
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == '(' || c == ')' || c == ',';
+    }
+
+    /** Removes every Expression from the cache, keeping the counters
+     */
+    synchronized void clear() {
+        this.entries.clear();
+    }
+
+    /** Returns the number of cached Expressions
+     * @return The size of the cache
+     */
+    synchronized int size() {
+        return this.entries.size();
+    }
+
+    /** Returns the largest number of Expressions the cache keeps
+     * @return The capacity
+     */
+    int capacity() {
+        return this.capacity;
+    }
+
+    /** Returns the number of lookups that found a cached Expression
+     * @return The hit count
+     */
+    synchronized long hits() {
+        return this.hits;
+    }
+
+    /** Returns the number of lookups that had to build an Expression
+     * @return The miss count
+     */
+    synchronized long misses() {
+        return this.misses;
+    }
+
+    /** Returns the number of Expressions dropped to stay within the capacity
+     * @return The eviction count
+     */
+    synchronized long evictions() {
+        return this.evictions;
+    }
+}
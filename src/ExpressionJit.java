@@ -0,0 +1,373 @@
+package src;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * ExpressionJit translates a Program into a hidden class implementing
+ * DoubleUnaryOperator, so HotSpot sees each hot curve as straight-line code.
+ * <p>
+ * The class file is written by hand; the postfix program maps one to one onto
+ * JVM stack instructions, so no branches and no stack map frames are needed.
+ * Registered functions are passed to the constructor and kept in a field, so a
+ * call is a field load and an invokestatic.
+ * The threshold is read from the system property "calculator.jit.threshold",
+ * a negative value disables the tier.
+ */
+final class ExpressionJit {
+
+    private static final int DEFAULT_THRESHOLD = 10000;
+    private static volatile int threshold = Integer.getInteger("calculator.jit.threshold", DEFAULT_THRESHOLD);
+
+    private ExpressionJit() {
+    }
+
+    /** Returns the number of evaluations before an Expression is compiled
+     * @return The call-count threshold, negative if the tier is disabled
+     */
+    static int getThreshold() {
+        return threshold;
+    }
+
+    /** Sets the number of evaluations before an Expression is compiled
+     * @param calls The call-count threshold, negative to disable the tier
+     */
+    static void setThreshold(int calls) {
+        threshold = calls;
+    }
+
+    /** Checks if an expression has just become hot
+     * @param calls The number of evaluations so far
+     * @return True if the expression should be compiled now
+     */
+    static boolean isHot(int calls) {
+        int limit = threshold;
+        return limit >= 0 && calls == limit;
+    }
+
+    /** Compiles a program into a DoubleUnaryOperator
+     * @param program The program to compile
+     * @return The compiled operator, or null if the program cannot be compiled
+     */
+    static DoubleUnaryOperator compile(Program program) {
+        try {
+            byte[] bytes = new ClassWriter(program).toByteArray();
+            if (bytes == null) {
+                return null;
+            }
+            MethodHandles.Lookup hidden = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            MethodHandle ctor = hidden.findConstructor(hidden.lookupClass(),
+                    MethodType.methodType(void.class, UserFunction[].class));
+            UserFunction[] functions = new UserFunction[program.functionCount()];
+            for (int i = 0; i < functions.length; i++) {
+                functions[i] = program.function(i);
+            }
+            return (DoubleUnaryOperator) ctor.invoke(functions);
+        } catch (Throwable e) {
+            // Any failure leaves the expression on the interpreter
+            return null;
+        }
+    }
+
+    /**
+     * ClassWriter emits the class file for a single Program
+     */
+    private static final class ClassWriter {
+
+        private static final String CLASS_NAME = "src/CompiledExpression";
+        private static final String MATH = "java/lang/Math";
+        private static final String PROGRAM = "src/Program";
+        private static final String FUNCTIONS = "[Lsrc/UserFunction;";
+
+        private final Program program;
+        private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+        private final DataOutputStream pool = new DataOutputStream(poolBytes);
+        private final Map<String, Integer> poolIndex = new HashMap<>();
+        private int poolCount = 1;
+
+        ClassWriter(Program program) {
+            this.program = program;
+        }
+
+        /** Writes the class file
+         * @return The class file bytes, or null if the program has no bytecode form
+         * @throws IOException
+         */
+        byte[] toByteArray() throws IOException {
+            // dload and dstore take a one byte index
+            byte[] apply = this.program.results() == 1 && this.program.registers() < 120 ? applyCode() : null;
+            if (apply == null) {
+                return null;
+            }
+            int thisClass = classRef(CLASS_NAME);
+            int superClass = classRef("java/lang/Object");
+            int iface = classRef("java/util/function/DoubleUnaryOperator");
+            int objectInit = methodRef("java/lang/Object", "<init>", "()V");
+            int functionsField = fieldRef();
+            int initName = utf8("<init>");
+            int initDesc = utf8("(" + FUNCTIONS + ")V");
+            int fieldName = utf8("functions");
+            int fieldDesc = utf8(FUNCTIONS);
+            int applyName = utf8("applyAsDouble");
+            int applyDesc = utf8("(D)D");
+            int codeAttr = utf8("Code");
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(52);
+            out.writeShort(this.poolCount);
+            this.pool.flush();
+            out.write(this.poolBytes.toByteArray());
+            out.writeShort(0x0010 | 0x0020);    // ACC_FINAL | ACC_SUPER
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(iface);
+            out.writeShort(1);    // fields
+            out.writeShort(0x0002 | 0x0010);    // ACC_PRIVATE | ACC_FINAL
+            out.writeShort(fieldName);
+            out.writeShort(fieldDesc);
+            out.writeShort(0);
+            out.writeShort(2);    // methods
+
+            byte[] init = { 0x2a, (byte) 0xb7, (byte) (objectInit >> 8), (byte) objectInit,
+                    0x2a, 0x2b, (byte) 0xb5, (byte) (functionsField >> 8), (byte) functionsField, (byte) 0xb1 };
+            writeMethod(out, initName, initDesc, codeAttr, 2, 2, init);
+            // two slots per double, plus room for dup2, an int operand or a function and its index
+            writeMethod(out, applyName, applyDesc, codeAttr, 2 * this.program.maxStack() + 2,
+                    3 + 2 * this.program.registers(), apply);
+
+            out.writeShort(0);    // attributes
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        /** Translates the program into the body of applyAsDouble
+         * @return The bytecode, or null if an instruction cannot be translated
+         */
+        private byte[] applyCode() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream code = new DataOutputStream(bytes);
+            for (int insn : this.program.code()) {
+                switch (Program.opcode(insn)) {
+                    case Program.CONST:
+                        code.writeByte(0x14);    // ldc2_w
+                        code.writeShort(doubleConst(this.program.constant(Program.operand(insn))));
+                        break;
+                    case Program.VAR:
+                        code.writeByte(0x27);    // dload_1
+                        break;
+                    case Program.ADD:
+                        code.writeByte(0x63);
+                        break;
+                    case Program.SUB:
+                        code.writeByte(0x67);
+                        break;
+                    case Program.MUL:
+                        code.writeByte(0x6b);
+                        break;
+                    case Program.DIV:
+                        code.writeByte(0x6f);
+                        break;
+                    case Program.POW:
+                        invokeMath(code, "pow", "(DD)D");
+                        break;
+                    case Program.SQUARE:
+                        code.writeByte(0x5c);    // dup2
+                        code.writeByte(0x6b);
+                        break;
+                    case Program.SQRT:
+                        invoke(code, PROGRAM, "sqrtPow", "(D)D");
+                        break;
+                    case Program.POWI:
+                        code.writeByte(0x11);    // sipush
+                        code.writeShort(Program.signedOperand(insn));
+                        invoke(code, PROGRAM, "powi", "(DI)D");
+                        break;
+                    case Program.STORE:
+                        code.writeByte(0x5c);    // dup2
+                        code.writeByte(0x39);    // dstore
+                        code.writeByte(local(insn));
+                        break;
+                    case Program.LOAD:
+                        code.writeByte(0x18);    // dload
+                        code.writeByte(local(insn));
+                        break;
+                    case Program.CALL1:
+                        loadFunction(code, insn);
+                        invoke(code, PROGRAM, "call1", "(DLsrc/UserFunction;)D");
+                        break;
+                    case Program.CALL2:
+                        loadFunction(code, insn);
+                        invoke(code, PROGRAM, "call2", "(DDLsrc/UserFunction;)D");
+                        break;
+                    case Program.EXP:
+                        invokeMath(code, "exp", "(D)D");
+                        break;
+                    case Program.SIN:
+                        invokeMath(code, "sin", "(D)D");
+                        break;
+                    case Program.COS:
+                        invokeMath(code, "cos", "(D)D");
+                        break;
+                    case Program.TAN:
+                        invokeMath(code, "tan", "(D)D");
+                        break;
+                    case Program.ASIN:
+                        invokeMath(code, "asin", "(D)D");
+                        break;
+                    case Program.ACOS:
+                        invokeMath(code, "acos", "(D)D");
+                        break;
+                    case Program.ATAN:
+                        invokeMath(code, "atan", "(D)D");
+                        break;
+                    case Program.LN:
+                        invokeMath(code, "log", "(D)D");
+                        break;
+                    case Program.LOG:
+                        invokeMath(code, "log10", "(D)D");
+                        break;
+                    default:
+                        return null;
+                }
+            }
+            code.writeByte(0xaf);    // dreturn
+            code.flush();
+            return bytes.toByteArray();
+        }
+
+        /** Returns the local variable slot of a register, after this and x
+         * @param insn A STORE or LOAD instruction
+         * @return The local variable index
+         */
+        private static int local(int insn) {
+            return 3 + 2 * Program.operand(insn);
+        }
+
+        /** Pushes the registered function called by an instruction
+         * @param code The bytecode being written
+         * @param insn A CALL1 or CALL2 instruction
+         */
+        private void loadFunction(DataOutputStream code, int insn) throws IOException {
+            code.writeByte(0x2a);    // aload_0
+            code.writeByte(0xb4);    // getfield
+            code.writeShort(fieldRef());
+            code.writeByte(0x11);    // sipush
+            code.writeShort(Program.operand(insn));
+            code.writeByte(0x32);    // aaload
+        }
+
+        private void invokeMath(DataOutputStream code, String name, String desc) throws IOException {
+            invoke(code, MATH, name, desc);
+        }
+
+        private void invoke(DataOutputStream code, String owner, String name, String desc) throws IOException {
+            code.writeByte(0xb8);    // invokestatic
+            code.writeShort(methodRef(owner, name, desc));
+        }
+
+        private static void writeMethod(DataOutputStream out, int name, int desc, int codeAttr,
+                                        int maxStack, int maxLocals, byte[] code) throws IOException {
+            out.writeShort(0x0001);    // ACC_PUBLIC
+            out.writeShort(name);
+            out.writeShort(desc);
+            out.writeShort(1);
+            out.writeShort(codeAttr);
+            out.writeInt(12 + code.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.length);
+            out.write(code);
+            out.writeShort(0);    // exception table
+            out.writeShort(0);    // attributes
+        }
+
+        private int utf8(String value) throws IOException {
+            Integer index = this.poolIndex.get("U" + value);
+            if (index != null) {
+                return index;
+            }
+            this.pool.writeByte(1);
+            this.pool.writeUTF(value);
+            return add("U" + value, 1);
+        }
+
+        private int classRef(String name) throws IOException {
+            Integer index = this.poolIndex.get("C" + name);
+            if (index != null) {
+                return index;
+            }
+            int nameIndex = utf8(name);
+            this.pool.writeByte(7);
+            this.pool.writeShort(nameIndex);
+            return add("C" + name, 1);
+        }
+
+        private int methodRef(String owner, String name, String desc) throws IOException {
+            String key = "M" + owner + "." + name + desc;
+            Integer index = this.poolIndex.get(key);
+            if (index != null) {
+                return index;
+            }
+            int ownerIndex = classRef(owner);
+            int nameIndex = utf8(name);
+            int descIndex = utf8(desc);
+            this.pool.writeByte(12);    // NameAndType
+            this.pool.writeShort(nameIndex);
+            this.pool.writeShort(descIndex);
+            int nameAndType = add("N" + name + desc, 1);
+            this.pool.writeByte(10);    // Methodref
+            this.pool.writeShort(ownerIndex);
+            this.pool.writeShort(nameAndType);
+            return add(key, 1);
+        }
+
+        private int fieldRef() throws IOException {
+            String key = "F" + FUNCTIONS;
+            Integer index = this.poolIndex.get(key);
+            if (index != null) {
+                return index;
+            }
+            int ownerIndex = classRef(CLASS_NAME);
+            int nameIndex = utf8("functions");
+            int descIndex = utf8(FUNCTIONS);
+            this.pool.writeByte(12);    // NameAndType
+            this.pool.writeShort(nameIndex);
+            this.pool.writeShort(descIndex);
+            int nameAndType = add("Nfunctions" + FUNCTIONS, 1);
+            this.pool.writeByte(9);    // Fieldref
+            this.pool.writeShort(ownerIndex);
+            this.pool.writeShort(nameAndType);
+            return add(key, 1);
+        }
+
+        private int doubleConst(double value) throws IOException {
+            long bits = Double.doubleToRawLongBits(value);
+            String key = "D" + bits;
+            Integer index = this.poolIndex.get(key);
+            if (index != null) {
+                return index;
+            }
+            this.pool.writeByte(6);
+            this.pool.writeLong(bits);
+            return add(key, 2);    // doubles take two pool slots
+        }
+
+        private int add(String key, int slots) {
+            int index = this.poolCount;
+            this.poolIndex.put(key, index);
+            this.poolCount += slots;
+            return index;
+        }
+    }
+}
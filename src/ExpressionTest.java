@@ -0,0 +1,1033 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for parsing, compiling and evaluating Expressions
+ */
+class ExpressionTest {
+
+	@Test
+	void testCompiledArithmetic() throws ExpressionException {
+		Assertions.assertEquals(13.0, new Expression("7 + 6").evaluate());
+		Assertions.assertEquals(30.0, new Expression("5 * ( 4 + 2 )").evaluate());
+		Assertions.assertEquals(-1.0, new Expression("2 - 3").evaluate());
+		Assertions.assertEquals(512.0, new Expression("2 ^ 3 ^ 3").evaluate(), 1e-9);
+		Assertions.assertEquals(14.0, new Expression("2 + 3 * 4").evaluate());
+	}
+
+	@Test
+	void testCompiledVariable() throws ExpressionException {
+		Expression exp = new Expression("x^2 + 2 * x + 1");
+		Assertions.assertEquals(16.0, exp.evaluate(3.0));
+		Assertions.assertEquals(0.0, exp.evaluate(-1.0));
+		Assertions.assertEquals(Math.sin(0.5), new Expression("sin(x)").evaluate(0.5));
+		Assertions.assertEquals(Math.log10(9), new Expression("log(9)").evaluate());
+	}
+
+	@Test
+	void testCompiledErrors() {
+		Assertions.assertThrows(ExpressionException.class, () -> new Expression("x + 1").evaluate());
+	}
+
+	@Test
+	void testFunctionsResolvedAtParse() {
+		Assertions.assertThrows(SyntaxException.class, () -> new Expression("foo(2)"));
+		Assertions.assertThrows(SyntaxException.class, () -> new Expression("x + sinn ( x )"));
+		ASTNode tree = parse("tan^-1 ( x )");
+		Assertions.assertEquals(BuiltinFunction.ATAN, tree.getFunction());
+		for (BuiltinFunction function : BuiltinFunction.values()) {
+			Assertions.assertEquals(function, BuiltinFunction.forName(function.functionName()));
+		}
+	}
+
+	@Test
+	void testJitMatchesInterpreter() throws ExpressionException {
+		int threshold = ExpressionJit.getThreshold();
+		ExpressionJit.setThreshold(1);
+		try {
+			String[] sources = { "x^2 + 2 ^ x", "sin(x) / ( 1 + x )", "e^ x", "tan^-1 ( x ) - 0.5", "log(x) * ln(x)",
+					"x ^ 0.5 + x ^ 2" };
+			for (String source : sources) {
+				Expression jit = new Expression(source);
+				jit.evaluate(0.0);
+				Assertions.assertTrue(jit.isJitCompiled(), source);
+				ExpressionJit.setThreshold(-1);
+				Expression interpreted = new Expression(source);
+				for (double x = -3.0; x <= 3.0; x += 0.25) {
+					Assertions.assertEquals(interpreted.evaluate(x), jit.evaluate(x), source);
+				}
+				ExpressionJit.setThreshold(1);
+			}
+		} finally {
+			ExpressionJit.setThreshold(threshold);
+		}
+	}
+
+	@Test
+	void testJitFallsBackToInterpreter() throws ExpressionException {
+		// more shared subexpressions than dload/dstore can index
+		StringBuilder source = new StringBuilder("x");
+		for (int k = 1; k <= 130; k++) {
+			source.append(" + ( sin ( x + ").append(k).append(" ) ) * ( sin ( x + ").append(k).append(" ) )");
+		}
+		int threshold = ExpressionJit.getThreshold();
+		ExpressionJit.setThreshold(1);
+		try {
+			Expression exp = new Expression(source.toString());
+			double first = exp.evaluate(0.5);
+			Assertions.assertFalse(exp.isJitCompiled());
+			Assertions.assertEquals(first, exp.evaluate(0.5));
+		} finally {
+			ExpressionJit.setThreshold(threshold);
+		}
+	}
+
+	@Test
+	void testBatchMatchesScalar() throws ExpressionException {
+		String[] sources = { "x^2 + 2 * x + 1", "sin(x) / ( 1 + x )", "e^ x", "cos^-1 ( x ) - 0.5", "7" };
+		double[] xs = new double[600];
+		for (int i = 0; i < xs.length; i++) {
+			xs[i] = -3.0 + i * 0.01;
+		}
+		double[] out = new double[xs.length];
+		for (String source : sources) {
+			Expression exp = new Expression(source);
+			exp.evaluate(xs, out);
+			for (int i = 0; i < xs.length; i++) {
+				Assertions.assertEquals(exp.evaluate(xs[i]), out[i], source);
+			}
+		}
+	}
+
+	@Test
+	void testFunctionBatch() {
+		double[] grid = { -1.0, 0.0, 0.5, 2.0 };
+		double[] xs = new double[grid.length];
+		double[] ys = new double[grid.length];
+		new Parametric("t * 2", "t^2", -1, 2).calc(grid, xs, ys);
+		for (int i = 0; i < grid.length; i++) {
+			Assertions.assertEquals(grid[i] * 2, xs[i]);
+			Assertions.assertEquals(grid[i] * grid[i], ys[i]);
+		}
+		new SingleVariate("ln ( x - 1 )", -1, 2).calc(grid, xs, ys);
+		Assertions.assertEquals(0.5, xs[2]);
+		Assertions.assertTrue(Double.isNaN(ys[2]));
+	}
+
+	@Test
+	void testRegisteredFunctions() throws ExpressionException {
+		Expression exp = new Expression("max ( x , 2 ) + abs ( x )");
+		Assertions.assertEquals(5.0, exp.evaluate(-3.0));
+		Assertions.assertEquals(8.0, exp.evaluate(4.0));
+		Assertions.assertEquals(Math.sinh(0.5), new Expression("sinh(0.5)").evaluate());
+		Assertions.assertEquals(0.5204998778130465, new Expression("erf(0.5)").evaluate(), 1e-15);
+		Assertions.assertEquals(0.9953222650189527, new Expression("erf(2)").evaluate(), 1e-15);
+		Assertions.assertEquals(-0.9999779095030014, new Expression("erf(0 - 3)").evaluate(), 1e-15);
+		Assertions.assertThrows(SyntaxException.class, () -> new Expression("max ( 1 )"));
+		Assertions.assertThrows(SyntaxException.class, () -> new Expression("sinh ( 1 , 2 )"));
+		Assertions.assertThrows(SyntaxException.class, () -> new Expression("abs x"));
+	}
+
+	@Test
+	void testCustomRegistry() throws ExpressionException {
+		FunctionRegistry registry = new FunctionRegistry();
+		registry.register("table", new LookupTable(new double[] { 0, 1, 3 }, new double[] { 0, 10, 30 }));
+		registry.register("hyp", (double a, double b) -> Math.hypot(a, b));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> registry.register("sin", Math::sin));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> registry.register("x", Math::sin));
+
+		Program program = Program.compile(new Parser(new Lexer().tokenize("table(x) + hyp(x + 1, 4)"), registry).parseTokens());
+		Assertions.assertEquals(20.0 + 5.0, program.evaluate(2.0));
+		Assertions.assertTrue(Double.isNaN(program.evaluate(4.0)));
+		Assertions.assertThrows(SyntaxException.class, () -> new Expression("table(x)"));
+	}
+
+	@Test
+	void testJitCallsRegisteredFunctions() throws ExpressionException {
+		int threshold = ExpressionJit.getThreshold();
+		ExpressionJit.setThreshold(1);
+		try {
+			Expression exp = new Expression("max ( x , 0.5 ) * sinh ( x ) + x ^ 3");
+			Program program = Program.compile(exp.tree());
+			exp.evaluate(0.0);
+			Assertions.assertTrue(exp.isJitCompiled());
+			for (double x = -3.0; x <= 3.0; x += 0.25) {
+				Assertions.assertEquals(program.evaluate(x), exp.evaluate(x));
+			}
+		} finally {
+			ExpressionJit.setThreshold(threshold);
+		}
+	}
+
+	@Test
+	void testExpressionCache() {
+		ExpressionCache cache = new ExpressionCache(2);
+		Expression square = cache.get("sin( x ) ^ 2");
+		Assertions.assertSame(square, cache.get("  sin (x)  ^ 2 "));
+		Assertions.assertEquals(1, cache.hits());
+		Assertions.assertEquals(1, cache.misses());
+		cache.get("x + 1");
+		cache.get("sin (x) ^ 2");
+		cache.get("x * 2");
+		Assertions.assertEquals(1, cache.evictions());
+		Assertions.assertEquals(2, cache.size());
+		Assertions.assertSame(square, cache.get("sin(x) ^ 2"));
+		Assertions.assertNotEquals(ExpressionCache.normalize("x+1"), ExpressionCache.normalize("x + 1"));
+		Assertions.assertThrows(SyntaxException.class, () -> cache.get("foo(x)"));
+		Assertions.assertEquals(2, cache.size());
+		Assertions.assertEquals("max(x,2)", ExpressionCache.normalize(" max ( x ,  2 ) "));
+	}
+
+	@Test
+	void testDerivativeRules() throws ExpressionException {
+		String[] sources = { "3 * x ^ 3 - x / 2 + 7", "( sin(x) ) * ( cos(x) )", "tan(x) / ( 1 + x ^ 2 )",
+				"e^ ( x * x )", "( sin^-1 ( x / 4 ) ) + ( cos^-1 ( x / 5 ) ) + ( tan^-1 ( x ) )",
+				"ln ( x + 5 ) - log ( x + 5 )", "2 ^ x + ( x + 5 ) ^ x", "sinh ( x ) + sqrt ( x + 5 ) + erf ( x )" };
+		for (String source : sources) {
+			Expression exp = new Expression(source);
+			Expression derivative = exp.derivative();
+			Assertions.assertSame(derivative, exp.derivative());
+			for (double x = -2.0; x <= 2.0; x += 0.3) {
+				double h = 1e-6;
+				double estimate = (exp.evaluate(x + h) - exp.evaluate(x - h)) / (2 * h);
+				Assertions.assertEquals(estimate, derivative.evaluate(x), 1e-5 * Math.max(1.0, Math.abs(estimate)));
+			}
+		}
+	}
+
+	@Test
+	void testDerivativeIsSimplified() throws ExpressionException {
+		ASTNode tree = new Expression("x ^ 2 + 5 * x").derivative().tree();
+		Assertions.assertEquals(Lexer.TokenType.PLUS, tree.getTokenType());
+		Assertions.assertEquals(Lexer.TokenType.MUL, tree.getLeft().getTokenType());
+		Assertions.assertEquals(2.0, Double.parseDouble(tree.getLeft().getLeft().getTokenVal()));
+		Assertions.assertEquals(Lexer.TokenType.VAR, tree.getLeft().getRight().getTokenType());
+		Assertions.assertEquals(5.0, Double.parseDouble(tree.getRight().getTokenVal()));
+		Assertions.assertEquals(2.0, new Expression("2 * x").derivative().evaluate(Double.POSITIVE_INFINITY));
+		Assertions.assertThrows(ExpressionException.class, () -> new Expression("max ( x , 1 )").derivative());
+	}
+
+	@Test
+	void testDerivativeFunction() {
+		double[] grid = { -1.0, 0.0, 2.0 };
+		double[] xs = new double[grid.length];
+		double[] ys = new double[grid.length];
+		Derivative derivative = new Derivative("x ^ 3", -1, 2);
+		derivative.calc(grid, xs, ys);
+		for (int i = 0; i < grid.length; i++) {
+			Assertions.assertEquals(grid[i], xs[i]);
+			Assertions.assertEquals(3 * grid[i] * grid[i], ys[i]);
+		}
+		Assertions.assertEquals(12.0, derivative.calc(2.0).getY());
+		Assertions.assertEquals("d/dx(x ^ 3)", derivative.toString());
+	}
+
+	@Test
+	void testDualMatchesSymbolicDerivative() throws ExpressionException {
+		String[] sources = { "3 * x ^ 3 - x / 2 + 7", "( sin(x) ) * ( cos(x) ) + ( sin(x) )", "tan(x) / ( 1 + x ^ 2 )",
+				"e^ ( x * x )", "( sin^-1 ( x / 4 ) ) + ( cos^-1 ( x / 5 ) ) + ( tan^-1 ( x ) )",
+				"ln ( x + 5 ) - log ( x + 5 )", "2 ^ x + ( x + 5 ) ^ x + x ^ 0.5", "sinh ( x ) + erf ( x )" };
+		double[] dual = new double[2];
+		for (String source : sources) {
+			Expression exp = new Expression(source);
+			Expression derivative = exp.derivative();
+			for (double x = 0.1; x <= 2.0; x += 0.3) {
+				exp.evaluateDual(x, dual);
+				Assertions.assertEquals(exp.evaluate(x), dual[0], 1e-12 * Math.max(1.0, Math.abs(dual[0])));
+				double expected = derivative.evaluate(x);
+				Assertions.assertEquals(expected, dual[1], 1e-12 * Math.max(1.0, Math.abs(expected)));
+			}
+		}
+		Expression max = new Expression("max ( x * x , 4 )");
+		max.evaluateDual(3.0, dual);
+		Assertions.assertEquals(9.0, dual[0]);
+		Assertions.assertEquals(6.0, dual[1], 1e-6);
+		max.evaluateDual(1.0, dual);
+		Assertions.assertEquals(0.0, dual[1], 1e-6);
+	}
+
+	@Test
+	void testIntervalEnclosesSamples() throws ExpressionException {
+		String[] sources = { "3 * x ^ 3 - x / 2 + 7", "( sin(x) ) * ( cos(x) )", "x ^ 2 - 2 * x", "e^ ( 0 - x * x )",
+				"( sin^-1 ( x / 4 ) ) + ( cos^-1 ( x / 5 ) ) + ( tan^-1 ( x ) )", "ln ( x + 5 ) - log ( x + 5 )",
+				"2 ^ x + x ^ 0.5", "1 / ( x ^ 2 + 1 )", "x ^ -3 + x ^ 4" };
+		double[] bounds = new double[2];
+		java.util.Random random = new java.util.Random(7);
+		for (String source : sources) {
+			Expression exp = new Expression(source);
+			for (int trial = 0; trial < 50; trial++) {
+				double lo = random.nextDouble() * 8 - 4;
+				double hi = lo + random.nextDouble() * 3;
+				exp.evaluateInterval(lo, hi, bounds);
+				for (int k = 0; k <= 20; k++) {
+					double y = exp.evaluate(lo + (hi - lo) * k / 20);
+					if (!Double.isNaN(y)) {
+						Assertions.assertTrue(bounds[0] <= y && y <= bounds[1], source + " at " + lo + ".." + hi);
+					}
+				}
+			}
+		}
+		new Expression("ln ( x )").evaluateInterval(-3, -1, bounds);
+		Assertions.assertTrue(bounds[0] > bounds[1]);
+		new Expression("1 / x").evaluateInterval(-0.5, 0.5, bounds);
+		Assertions.assertEquals(Double.NEGATIVE_INFINITY, bounds[0]);
+		new Expression("tan(x)").evaluateInterval(1.5, 1.6, bounds);
+		Assertions.assertEquals(Double.POSITIVE_INFINITY, bounds[1]);
+		new Expression("( sin(x) ) + 2").evaluateInterval(0, 1, bounds);
+		Assertions.assertTrue(bounds[0] >= 1.99 && bounds[1] <= 2.85);
+	}
+
+	@Test
+	void testIntervalSamplerMarksPoles() {
+		double[] grid = new double[201];
+		for (int k = 0; k < grid.length; k++) {
+			grid[k] = -10 + k * 0.1;
+		}
+		double[] xs = new double[grid.length];
+		double[] ys = new double[grid.length];
+		boolean[] breaks = new boolean[grid.length];
+
+		Function tan = new SingleVariate("tan(x)", -10, 10);
+		tan.calc(grid, xs, ys);
+		IntervalSampler.markPoles(tan, xs, ys, grid.length, breaks);
+		int poles = 0;
+		for (int k = 1; k < grid.length; k++) {
+			if (breaks[k]) {
+				poles++;
+				double pole = Math.PI / 2 + Math.PI * Math.floor((grid[k] - Math.PI / 2) / Math.PI);
+				Assertions.assertTrue(grid[k - 1] < pole && pole < grid[k]);
+			}
+		}
+		Assertions.assertEquals(6, poles);
+
+		Function shifted = new SingleVariate("1 / ( x - 0.05 )", -10, 10);
+		shifted.calc(grid, xs, ys);
+		IntervalSampler.markPoles(shifted, xs, ys, grid.length, breaks);
+		Assertions.assertTrue(breaks[101]);
+
+		Function steep = new SingleVariate("x / ( x ^ 2 + 0.01 ) - 1", -10, 10);
+		steep.calc(grid, xs, ys);
+		IntervalSampler.markPoles(steep, xs, ys, grid.length, breaks);
+		for (boolean b : breaks) {
+			Assertions.assertFalse(b);
+		}
+	}
+
+	@Test
+	void testSimplifierFoldsConstants() {
+		ASTNode tree = Simplifier.simplify(parse("2 * 3.5 * x + ( 4 / 2 ) + sin(2) * 1"));
+		Assertions.assertEquals(Lexer.TokenType.PLUS, tree.getTokenType());
+		Assertions.assertEquals(String.valueOf(Math.sin(2)), tree.getRight().getTokenVal());
+		Assertions.assertEquals("2.0", tree.getLeft().getRight().getTokenVal());
+		Assertions.assertEquals("7.0", tree.getLeft().getLeft().getLeft().getTokenVal());
+		Assertions.assertEquals(Lexer.TokenType.VAR, Simplifier.simplify(parse("x ^ 1 * 1 - 0")).getTokenType());
+	}
+
+	@Test
+	void testSimplifierKeepsIeeeSemantics() throws ExpressionException {
+		String[] sources = { "x + 0", "0 * x", "x * 1 / 1", "x ^ 0", "x ^ 1", "1 / ( x - 0 )", "2 * 3 * x + 0 * x + ( 4 / 2 )",
+				"( 0 - 1 ) / 0 * x", "ln ( 0 ) + x", "x ^ ( 1 / 2 )" };
+		double[] values = { 0.0, -0.0, 1.5, -2.0, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY };
+		for (String source : sources) {
+			Program plain = Program.compile(parse(source));
+			Program simplified = Program.compile(Simplifier.simplify(parse(source)));
+			for (double x : values) {
+				Assertions.assertEquals(plain.evaluate(x), simplified.evaluate(x), source + " at " + x);
+			}
+		}
+	}
+
+	@Test
+	void testPowerReductionIsBitExact() throws ExpressionException {
+		double[] edges = { 0.0, -0.0, 1.0, -1.0, 0.5, -2.5, Double.MIN_VALUE, -Double.MIN_VALUE, Double.MAX_VALUE,
+				-Double.MAX_VALUE, 1e-160, 1e160, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY };
+		java.util.Random random = new java.util.Random(335);
+		double[] values = new double[edges.length + 20000];
+		System.arraycopy(edges, 0, values, 0, edges.length);
+		for (int i = edges.length; i < values.length; i++) {
+			values[i] = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(40) - 20);
+		}
+		double[] exponents = { 2.0, 0.5 };
+		for (double n : exponents) {
+			Program program = Program.compile(parse("x ^ " + n));
+			Assertions.assertFalse(hasOpcode(program, Program.POW), "x^" + n + " still calls Math.pow");
+			double[] batch = new double[values.length];
+			program.evaluate(values, batch);
+			for (int i = 0; i < values.length; i++) {
+				Assertions.assertEquals(Math.pow(values[i], n), program.evaluate(values[i]), "x^" + n + " at " + values[i]);
+				Assertions.assertEquals(Math.pow(values[i], n), batch[i], "x^" + n + " at " + values[i]);
+			}
+		}
+	}
+
+	@Test
+	void testFastPowerChains() throws ExpressionException {
+		boolean fastPow = Program.isFastPow();
+		Program.setFastPow(true);
+		try {
+			java.util.Random random = new java.util.Random(335);
+			int[] exponents = { 3, 4, 5, 7, 8, 13, -1, -2, -3 };
+			for (int n : exponents) {
+				Program program = Program.compile(parse("x ^ ( " + n + " )"));
+				Assertions.assertTrue(hasOpcode(program, Program.POWI), "x^" + n + " not reduced");
+				Assertions.assertTrue(Double.isNaN(program.evaluate(Double.NaN)));
+				for (int i = 0; i < 2000; i++) {
+					double x = (random.nextDouble() - 0.5) * 20;
+					double expected = Math.pow(x, n);
+					// squaring doubles the relative error of the base, so the bound grows with n
+					Assertions.assertEquals(expected, program.evaluate(x), Math.abs(n) * Math.ulp(expected));
+				}
+				Assertions.assertEquals(program.evaluate(1.7), ExpressionJit.compile(program).applyAsDouble(1.7));
+			}
+		} finally {
+			Program.setFastPow(fastPow);
+		}
+	}
+
+	@Test
+	void testPolynomialDetection() {
+		Polynomial p = Polynomial.fromTree(Simplifier.simplify(parse("( x + 1 ) ^ 2 * 3 - x / 2")));
+		Assertions.assertNotNull(p);
+		Assertions.assertEquals(2, p.degree());
+		Assertions.assertEquals(3.0, p.coefficient(0));
+		Assertions.assertEquals(5.5, p.coefficient(1));
+		Assertions.assertEquals(3.0, p.coefficient(2));
+		Assertions.assertNull(Polynomial.fromTree(parse("sin(x) + x")));
+		Assertions.assertNull(Polynomial.fromTree(parse("1 / x")));
+		Assertions.assertNull(Polynomial.fromTree(parse("x ^ 0.5")));
+		Assertions.assertNull(Polynomial.fromTree(parse("( x - 1000 ) ^ 8")));
+	}
+
+	@Test
+	void testPolynomialMatchesProgram() throws ExpressionException {
+		String[] sources = { "x ^ 3 - 2 * x + 1", "( x + 1 ) * ( x - 2 ) * ( 2 * x + 3 )", "x / 4 + 7",
+				"x ^ 8 + 1", "x ^ 12 + 1", "x ^ 16 + 1", "( x + 1 ) ^ 4 * ( x - 1 ) ^ 4" };
+		double[] steps = { 0.01, 0.1 };
+		for (String source : sources) {
+			Assertions.assertNotNull(Polynomial.fromTree(Simplifier.simplify(parse(source))));
+			Expression exp = new Expression(source);
+			Program program = Program.compile(parse(source));
+			for (double step : steps) {
+				double[] grid = new double[(int) Math.round(10.0 / step)];
+				exp.evaluateGrid(-5.0, step, grid);
+				for (int k = 0; k < grid.length; k++) {
+					double x = -5.0 + k * step;
+					double expected = program.evaluate(x);
+					double tolerance = 1e-12 * Math.max(1.0, Math.abs(expected));
+					Assertions.assertEquals(expected, exp.evaluate(x), tolerance);
+					Assertions.assertEquals(expected, grid[k], 1e-9 * Math.max(1.0, Math.abs(expected)));
+				}
+			}
+			Assertions.assertEquals(program.evaluate(Double.POSITIVE_INFINITY), exp.evaluate(Double.POSITIVE_INFINITY));
+		}
+	}
+
+	@Test
+	void testHashConsingSharesSubtrees() {
+		HashConser conser = new HashConser();
+		ASTNode tree = conser.intern(parse("( sin(x) ) ^ 3 + ( sin(x) ) * ( cos(x) ) + ( sin(x) )"));
+		ASTNode sin = tree.getRight();
+		Assertions.assertSame(sin, tree.getLeft().getRight().getLeft());
+		Assertions.assertSame(sin, tree.getLeft().getLeft().getLeft());
+		Program program = Program.compile(tree);
+		Assertions.assertEquals(1, program.registers());
+		int calls = 0;
+		for (int insn : program.code()) {
+			if (Program.opcode(insn) == Program.SIN) {
+				calls++;
+			}
+		}
+		Assertions.assertEquals(1, calls);
+	}
+
+	@Test
+	void testSharedProgramMatchesTree() throws ExpressionException {
+		String source = "( sin(x) ) ^ 3 + ( sin(x) ) * ( cos(x) ) + ( sin(x) ) / ( 2 + sin(x) )";
+		Program plain = Program.compile(parse(source));
+		Program shared = Program.compile(new HashConser().intern(parse(source)));
+		double[] xs = new double[300];
+		for (int i = 0; i < xs.length; i++) {
+			xs[i] = -3.0 + i * 0.02;
+		}
+		double[] batch = new double[xs.length];
+		shared.evaluate(xs, batch);
+		for (int i = 0; i < xs.length; i++) {
+			Assertions.assertEquals(plain.evaluate(xs[i]), shared.evaluate(xs[i]));
+			Assertions.assertEquals(plain.evaluate(xs[i]), batch[i]);
+			Assertions.assertEquals(plain.evaluate(xs[i]), ExpressionJit.compile(shared).applyAsDouble(xs[i]));
+		}
+	}
+
+	@Test
+	void testParametricSharesHalves() {
+		Parametric circle = new Parametric("( sin(t) ) * 2 + ( cos(t) )", "( sin(t) ) * 3", 0, 6);
+		double[] grid = { 0.0, 1.0, 2.5 };
+		double[] xs = new double[grid.length];
+		double[] ys = new double[grid.length];
+		circle.calc(grid, xs, ys);
+		for (int i = 0; i < grid.length; i++) {
+			Point p = circle.calc(grid[i]);
+			Assertions.assertEquals(Math.sin(grid[i]) * 2 + Math.cos(grid[i]), xs[i]);
+			Assertions.assertEquals(Math.sin(grid[i]) * 3, ys[i]);
+			Assertions.assertEquals(xs[i], p.getX());
+			Assertions.assertEquals(ys[i], p.getY());
+		}
+	}
+
+	@Test
+	void testLexerTokens() {
+		Assertions.assertEquals("[|NUM: 5|, |MUL: *|, |LPAREN: (|, |NUM: 4|, |PLUS: +|, |NUM: 2|, |RPAREN: )|]",
+				new Lexer().tokenize("5 * (4 + 2)").toString());
+		Assertions.assertEquals("[|FUNC: X+5|]", new Lexer().tokenize("X+5").toString());
+		Assertions.assertEquals("[|FUNC: max|, |LPAREN: (|, |VAR: x|, |COMMA: ,|, |NUM: 0|, |RPAREN: )|, |EXP: ^|, |NUM: 2|]",
+				new Lexer().tokenize("max(x, 0) ^ 2").toString());
+		Assertions.assertEquals("[|FUNC: e^|, |VAR: x|, |MINUS: -|, |FUNC: sin^-1|, |LPAREN: (|, |NUM: -.5|, |RPAREN: )|]",
+				new Lexer().tokenize("e^x - sin^-1(-.5)").toString());
+
+		java.util.List<Lexer.Token> tokens = new Lexer().tokenize(" 1.5e2*x ^2");
+		Assertions.assertEquals("[|FUNC: 1.5e2*x|, |EXP: ^|, |NUM: 2|]", tokens.toString());
+		Assertions.assertEquals(1, tokens.get(0).offset);
+		Assertions.assertEquals(9, tokens.get(1).offset);
+		Assertions.assertEquals(2.0, tokens.get(2).value);
+		Assertions.assertEquals(150.0, new Lexer().tokenize("1.5e2").get(0).value);
+		Assertions.assertSame("sinh", new Lexer().tokenize(new String("sinh(x)")).get(0).tokenVal);
+
+		java.util.Locale saved = java.util.Locale.getDefault();
+		try {
+			java.util.Locale.setDefault(java.util.Locale.GERMANY);
+			Assertions.assertEquals(Lexer.TokenType.NUM, new Lexer().tokenize("2.5").get(0).tokenType);
+			Assertions.assertEquals("[|NUM: 2|, |COMMA: ,|, |NUM: 5|]", new Lexer().tokenize("2,5").toString());
+		} finally {
+			java.util.Locale.setDefault(saved);
+		}
+	}
+
+	@Test
+	void testSyntaxErrorsHavePositions() {
+		SyntaxException e = Assertions.assertThrows(SyntaxException.class, () -> new Expression("2 * ( x + ) - foo(1) * ( 3"));
+		Assertions.assertEquals(3, e.getErrors().size());
+		Assertions.assertSame(e, e.getErrors().get(0));
+		Assertions.assertEquals("MISSING OPERAND BEFORE )", e.getMessage());
+		Assertions.assertEquals(10, e.getPosition());
+		Assertions.assertEquals("UNKNOWN FUNCTION: foo", e.getErrors().get(1).getMessage());
+		Assertions.assertEquals(14, e.getErrors().get(1).getPosition());
+		Assertions.assertEquals("MISSING )", e.getErrors().get(2).getMessage());
+		Assertions.assertEquals(23, e.getErrors().get(2).getPosition());
+
+		e = Assertions.assertThrows(SyntaxException.class, () -> new Expression("x x ) + max(1, 2, 3)"));
+		Assertions.assertEquals("MISSING OPERATOR BEFORE x", e.getMessage());
+		Assertions.assertEquals(2, e.getPosition());
+		Assertions.assertEquals("UNEXPECTED )", e.getErrors().get(1).getMessage());
+		Assertions.assertEquals("max TAKES 2 ARGUMENT(S)", e.getErrors().get(2).getMessage());
+		Assertions.assertEquals(16, e.getErrors().get(2).getPosition());
+
+		e = Assertions.assertThrows(SyntaxException.class, () -> new Expression(""));
+		Assertions.assertEquals(1, e.getErrors().size());
+		Assertions.assertEquals(0, e.getPosition());
+	}
+
+	@Test
+	void testSyntaxTreeViews() throws ExpressionException {
+		SyntaxTree tree = new Parser(new Lexer().tokenize("2 * ( sin(x) ) + max(x, 3) ^ 2")).parse();
+		Assertions.assertEquals(10, tree.size());
+		ASTNode root = tree.root();
+		Assertions.assertEquals(Lexer.TokenType.PLUS, root.getTokenType());
+		Assertions.assertSame(root.getLeft(), root.getLeft());
+		Assertions.assertEquals(2.0, root.getLeft().getLeft().getNumber());
+		Assertions.assertEquals(BuiltinFunction.SIN, root.getLeft().getRight().getFunction());
+		Assertions.assertEquals("x", root.getLeft().getRight().getLeft().getTokenVal());
+		Assertions.assertEquals("max", root.getRight().getLeft().getUserFunction().name());
+		Assertions.assertEquals(Lexer.TokenType.EXP, root.getRight().getTokenType());
+
+		// setting a child of a view leaves the arrays alone
+		root.getRight().setLeft(ASTNode.number(4.0));
+		Assertions.assertEquals(16.0, root.getRight().getLeft().getNumber() * root.getRight().getLeft().getNumber());
+		Assertions.assertEquals(Lexer.TokenType.FUNC, tree.root().getRight().getLeft().getTokenType());
+		Assertions.assertEquals(2 * Math.sin(1.0) + 9.0, Program.compile(tree.root()).evaluate(1.0));
+		Assertions.assertEquals(2 * Math.sin(1.0) + 16.0, Program.compile(root).evaluate(1.0));
+	}
+
+	@Test
+	void testSyntaxTreeMemoryPerNode() {
+		java.lang.management.ThreadMXBean threads = java.lang.management.ManagementFactory.getThreadMXBean();
+		if (!(threads instanceof com.sun.management.ThreadMXBean)
+				|| !((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+			return;
+		}
+		com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+		StringBuilder source = new StringBuilder("x");
+		for (int i = 0; i < 5000; i++) {
+			source.append(" + ").append(i % 7).append(".5 * x");
+		}
+		java.util.List<Lexer.Token> tokens = new Lexer().tokenize(source.toString());
+		new Parser(tokens).parse();    // load and warm up the classes before measuring
+
+		long thread = Thread.currentThread().getId();
+		long before = allocation.getThreadAllocatedBytes(thread);
+		SyntaxTree tree = new Parser(tokens).parse();
+		long arrays = allocation.getThreadAllocatedBytes(thread) - before;
+
+		java.util.List<ASTNode> views = ASTNode.postOrder(tree.root());
+		before = allocation.getThreadAllocatedBytes(thread);
+		for (ASTNode view : views) {
+			view.copy();    // a node holding its own token, as the parser used to build
+		}
+		long objects = allocation.getThreadAllocatedBytes(thread) - before;
+
+		double arrayBytesPerNode = (double) arrays / tree.size();
+		double objectBytesPerNode = (double) objects / tree.size();
+		Assertions.assertTrue(arrayBytesPerNode < 48, "array form takes " + arrayBytesPerNode + " bytes per node");
+		Assertions.assertTrue(arrayBytesPerNode * 2 < objectBytesPerNode,
+				arrayBytesPerNode + " bytes per node in arrays, " + objectBytesPerNode + " in objects");
+	}
+
+	@Test
+	void testDeepNestingDoesNotOverflow() throws Exception {
+		int depth = 20000;
+		StringBuilder parens = new StringBuilder();
+		StringBuilder sum = new StringBuilder("x");
+		StringBuilder sines = new StringBuilder();
+		for (int i = 0; i < depth; i++) {
+			parens.append("( 1 + ");
+			sum.append(" + x");
+			sines.append(i < 5000 ? "sin ( " : "");
+		}
+		parens.append("x");
+		sines.append("x");
+		for (int i = 0; i < depth; i++) {
+			parens.append(" )");
+			sines.append(i < 5000 ? " )" : "");
+		}
+		Assertions.assertEquals(depth + 0.5, new Expression(parens.toString()).evaluate(0.5));
+		Assertions.assertEquals((depth + 1) * 2.0, new Expression(sum.toString()).evaluate(2.0));
+		double expected = 0.5;
+		double slope = 1.0;
+		for (int i = 0; i < 5000; i++) {
+			slope *= Math.cos(expected);
+			expected = Math.sin(expected);
+		}
+		Expression nested = new Expression(sines.toString());
+		Assertions.assertEquals(expected, nested.evaluate(0.5));
+		Assertions.assertEquals(slope, nested.derivative().evaluate(0.5), 1e-12);
+
+		java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+		try (java.io.ObjectOutputStream out = new java.io.ObjectOutputStream(bytes)) {
+			out.writeObject(new Expression(parens.toString()));
+		}
+		try (java.io.ObjectInputStream in = new java.io.ObjectInputStream(
+				new java.io.ByteArrayInputStream(bytes.toByteArray()))) {
+			Assertions.assertEquals(depth + 0.5, ((Expression) in.readObject()).evaluate(0.5));
+		}
+	}
+
+	@Test
+	void testMaxParseDepth() {
+		int saved = Parser.getMaxDepth();
+		try {
+			Parser.setMaxDepth(10);
+			Assertions.assertThrows(SyntaxException.class,
+					() -> new Expression("1 + ( 1 + ( 1 + ( 1 + ( 1 + ( 1 + ( 1 + ( 1 + ( 1 + ( 1 + x ) ) ) ) ) ) ) ) )"));
+			// parentheses alone add no nodes
+			Assertions.assertEquals(4.0, new Expression("( ( ( ( ( ( ( ( ( ( ( x ) ) ) ) ) ) ) ) ) ) + 1 ) * 2").evaluate(1.0));
+		} catch (ExpressionException e) {
+			Assertions.fail(e.getMessage());
+		} finally {
+			Parser.setMaxDepth(saved);
+		}
+	}
+
+	@Test
+	void testMalformedInputThrows() {
+		Assertions.assertThrows(SyntaxException.class, () -> new Expression(""));
+		Assertions.assertThrows(SyntaxException.class, () -> new Expression("( x + 1"));
+		Assertions.assertThrows(SyntaxException.class, () -> new Expression("sin"));
+		Assertions.assertThrows(SyntaxException.class, () -> new Expression("x +"));
+		Assertions.assertThrows(SyntaxException.class, () -> new Expression("max ( 1 , 2"));
+	}
+
+	private static boolean hasOpcode(Program program, int op) {
+		for (int insn : program.code()) {
+			if (Program.opcode(insn) == op) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static ASTNode parse(String source) {
+		return new Parser(new Lexer().tokenize(source)).parseTokens();
+	}
+
+	@Test
+	void testIncrementalParseMatchesFullParse() throws ExpressionException {
+		IncrementalParser parser = new IncrementalParser();
+		String[] versions = { "( x + 1 ) * ( x - 2 )", "( x + 1 ) * ( x - 20 )", "( x + 1 ) * ( x - 20 ) + ( 3 * x )",
+				"( x + 1 ) * ( x - 20 ) + ( 3 * x ) + max(x, 2)", "( x + 1 ) / ( x - 20 ) + ( 3 * x ) + max(x, 2)",
+				"2 * ( x + 1 ) / ( x - 20 ) + ( 3 * x ) + max(x, 2)", "2 * (x + 1)/ (x - 20)+(3 * x) + max(x,2)",
+				"2 * ( ( x + 1 ) ^ 2 + ( x ) ) - sin(x)", "2 * ( ( x + 1 ) ^ 2 + ( x ) ) - sin(x) ^ 3" };
+		for (String source : versions) {
+			SyntaxTree incremental = parser.reparse(source);
+			SyntaxTree full = new Parser(new Lexer().tokenize(source)).parse();
+			Assertions.assertEquals(new Lexer().tokenize(source), parser.tokens(), source);
+			Assertions.assertEquals(full.size(), incremental.size(), source);
+			for (int i = 0; i < full.size(); i++) {
+				Assertions.assertEquals(full.type(i), incremental.type(i), source);
+				Assertions.assertEquals(full.text(i), incremental.text(i), source);
+				Assertions.assertEquals(full.left(i), incremental.left(i), source);
+				Assertions.assertEquals(full.right(i), incremental.right(i), source);
+			}
+			Expression exp = new Expression(source, incremental);
+			for (double x = -3.0; x <= 3.0; x += 0.75) {
+				Assertions.assertEquals(new Expression(source).evaluate(x), exp.evaluate(x), source);
+			}
+		}
+
+		parser.reparse("( x + 1 ) * ( x - 2 )");
+		parser.edit(18, 1, "3");
+		Assertions.assertEquals("( x + 1 ) * ( x - 3 )", parser.source());
+		Assertions.assertEquals(3, parser.reusedNodes());
+	}
+
+	@Test
+	void testIncrementalParseRecoversFromErrors() throws ExpressionException {
+		IncrementalParser parser = new IncrementalParser();
+		String typed = "( x ^ 2 ) * ( x + 1 )";
+		for (int end = 1; end <= typed.length(); end++) {
+			String source = typed.substring(0, end);
+			try {
+				new Expression(source);
+			} catch (SyntaxException e) {
+				SyntaxException partial = Assertions.assertThrows(SyntaxException.class, () -> parser.reparse(source));
+				Assertions.assertEquals(e.getMessage(), partial.getMessage(), source);
+				continue;
+			}
+			parser.reparse(source);
+		}
+		Expression exp = new Expression(typed, parser.reparse(typed));
+		Assertions.assertEquals(new Expression(typed).evaluate(1.5), exp.evaluate(1.5));
+		Assertions.assertThrows(SyntaxException.class, () -> parser.edit(9, 3, ""));
+		Assertions.assertEquals("( x ^ 2 )( x + 1 )", parser.source());
+		exp = new Expression(typed, parser.edit(9, 0, " * "));
+		Assertions.assertEquals(typed, parser.source());
+		Assertions.assertEquals(6, parser.reusedNodes());
+		Assertions.assertEquals(new Expression(typed).evaluate(1.5), exp.evaluate(1.5));
+	}
+
+	@Test
+	void testSampleBuffer() {
+		SampleBuffer samples = new SampleBuffer(2);
+		double[] grid = Function.stepGrid(-2, 2, 0.5);
+		new SingleVariate("x ^ 2", -2, 2).evaluateInto(samples, grid);
+		Assertions.assertEquals(9, samples.size());
+		double[] xs = samples.xs();
+		new SingleVariate("x + 1", -2, 2).evaluateInto(samples, grid);
+		Assertions.assertSame(xs, samples.xs());
+		Assertions.assertEquals(4, samples.indexOf(0.0));
+		Assertions.assertEquals(1.0, samples.y(4));
+		Assertions.assertTrue(samples.indexOf(0.25) < 0);
+		Assertions.assertEquals(5, samples.ceiling(0.25));
+
+		samples.trim(-0.75, 0.5);
+		Assertions.assertEquals(5, samples.size());
+		Assertions.assertEquals(-1.0, samples.x(0));
+		Assertions.assertEquals(1.0, samples.x(4));
+		double[] sum = { 0.0 };
+		samples.forEach((x, y) -> sum[0] += y - x);
+		Assertions.assertEquals(5.0, sum[0]);
+		samples.trim(5, 6);
+		Assertions.assertEquals(0, samples.size());
+	}
+
+	@Test
+	void testEvaluateFunctionRoundsToTenths() {
+		Map<Double, Point> points = new SingleVariate("x * 2", 0, 1).evaluateFunction(0.1);
+		Assertions.assertEquals(11, points.size());
+		Assertions.assertEquals(0.6, points.get(0.3).getY());
+		Assertions.assertEquals(2.0, points.get(1.0).getY());
+	}
+
+	@Test
+	void testCalcIntoDoesNotAllocate() throws ExpressionException {
+		java.lang.management.ThreadMXBean threads = java.lang.management.ManagementFactory.getThreadMXBean();
+		if (!(threads instanceof com.sun.management.ThreadMXBean)
+				|| !((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+			return;
+		}
+		com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+		long thread = Thread.currentThread().getId();
+		Function[] functions = { new SingleVariate("sin(x) * x + ln(x)", -10, 10),
+				new SingleVariate("x ^ 3 - 2 * x", -10, 10), new Derivative("cos(x) * x", -10, 10),
+				new Parametric("cos(t) * sin(t)", "sin(t) * sin(t) + 1", -10, 10) };
+		double[] xs = new double[64];
+		double[] ys = new double[64];
+		final int samples = 50000;
+		for (Function funct : functions) {
+			for (int i = 0; i < 2 * samples; i++) {    // past the compile threshold
+				funct.calcInto(i * 1e-3, xs, ys, i & 63);
+			}
+			long baseline = allocation.getThreadAllocatedBytes(thread);
+			baseline = allocation.getThreadAllocatedBytes(thread) - baseline;
+			long before = allocation.getThreadAllocatedBytes(thread);
+			for (int i = 0; i < samples; i++) {
+				funct.calcInto(i * 1e-3, xs, ys, i & 63);
+			}
+			long allocated = allocation.getThreadAllocatedBytes(thread) - before - baseline;
+			Assertions.assertTrue(allocated < samples, funct + " allocated " + allocated + " bytes for " + samples + " samples");
+			Point p = funct.calc(0.5);
+			funct.calcInto(0.5, xs, ys, 0);
+			Assertions.assertEquals(p.getX(), xs[0]);
+			Assertions.assertEquals(p.getY(), ys[0]);
+		}
+		// so does the dual number evaluator, with a register for the shared sin(x)
+		Expression shared = new Expression("( sin(x) ) * x + ( sin(x) ) ^ 2");
+		double[] dual = new double[2];
+		for (int i = 0; i < 2 * samples; i++) {
+			shared.evaluateDual(i * 1e-3, dual);
+		}
+		long before = allocation.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < samples; i++) {
+			shared.evaluateDual(i * 1e-3, dual);
+		}
+		long allocated = allocation.getThreadAllocatedBytes(thread) - before;
+		Assertions.assertTrue(allocated < samples, "evaluateDual allocated " + allocated + " bytes for " + samples + " samples");
+		Assertions.assertEquals(Math.cos(49.999) * (49.999 + 2 * Math.sin(49.999)) + Math.sin(49.999), dual[1], 1e-12);
+
+		new SingleVariate("ln(x)", -10, 10).calcInto(-1.0, xs, ys, 3);
+		Assertions.assertEquals(-1.0, xs[3]);
+		Assertions.assertTrue(Double.isNaN(ys[3]));
+	}
+
+	@Test
+	void testAdaptiveSamplerFollowsCurvature() {
+		SampleBuffer samples = new SampleBuffer();
+		int flat = AdaptiveSampler.sample(new SingleVariate("2 * x + 1", -10, 10), -10, 10, 15, 10, -10, 10, samples);
+		Assertions.assertTrue(flat <= 2 * AdaptiveSampler.SEGMENTS + 1, flat + " evaluations for a line");
+		for (int k = 0; k < samples.size(); k++) {
+			Assertions.assertEquals(2 * samples.x(k) + 1, samples.y(k), 1e-12);
+		}
+
+		int wiggly = AdaptiveSampler.sample(new SingleVariate("sin(1 / x)", -10, 10), -2, 2, 75, 50, -10, 10, samples);
+		Assertions.assertTrue(wiggly > 10 * flat, wiggly + " evaluations for sin(1/x)");
+		Assertions.assertTrue(wiggly <= AdaptiveSampler.getBudget());
+		int near = 0;
+		int far = 0;
+		for (int k = 1; k < samples.size(); k++) {
+			Assertions.assertTrue(samples.x(k) >= samples.x(k - 1));
+			if (Math.abs(samples.x(k)) < 0.5) {
+				near++;
+			} else if (Math.abs(samples.x(k)) > 1.5) {
+				far++;
+			}
+		}
+		Assertions.assertTrue(near > 10 * far, near + " samples near 0, " + far + " far from it");
+
+		AdaptiveSampler.sample(new SingleVariate("tan(x)", -10, 10), 0, 3, 50, 10, -10, 10, samples);
+		int pole = -1;
+		for (int k = 0; k < samples.size(); k++) {
+			if (Double.isNaN(samples.y(k))) {
+				pole = k;
+			}
+		}
+		Assertions.assertTrue(pole > 0, "no break at the pole");
+		Assertions.assertEquals(Math.PI / 2, samples.x(pole), 1e-3);
+	}
+
+	@Test
+	void testPixelColumnDecimation() {
+		SampleBuffer samples = new SampleBuffer();
+		double[] grid = new double[10000];
+		for (int k = 0; k < grid.length; k++) {
+			grid[k] = k / 10000.0;
+		}
+		new SingleVariate("sin(50 * x)", 0, 1).evaluateInto(samples, grid);
+		double[] low = new double[100];
+		double[] high = new double[100];
+		java.util.Arrays.fill(low, Double.POSITIVE_INFINITY);
+		java.util.Arrays.fill(high, Double.NEGATIVE_INFINITY);
+		for (int k = 0; k < samples.size(); k++) {
+			int column = (int) Math.floor(samples.x(k) * 100);
+			low[column] = Math.min(low[column], samples.y(k));
+			high[column] = Math.max(high[column], samples.y(k));
+		}
+		double firstY = samples.y(0);
+		double lastY = samples.y(samples.size() - 1);
+
+		PixelSampler.decimate(samples, 0, 100);
+		Assertions.assertTrue(samples.size() <= 4 * 100, samples.size() + " samples kept");
+		Assertions.assertEquals(firstY, samples.y(0));
+		Assertions.assertEquals(lastY, samples.y(samples.size() - 1));
+		double[] keptLow = new double[100];
+		double[] keptHigh = new double[100];
+		java.util.Arrays.fill(keptLow, Double.POSITIVE_INFINITY);
+		java.util.Arrays.fill(keptHigh, Double.NEGATIVE_INFINITY);
+		for (int k = 0; k < samples.size(); k++) {
+			if (k > 0) {
+				Assertions.assertTrue(samples.x(k) > samples.x(k - 1));
+			}
+			int column = (int) Math.floor(samples.x(k) * 100);
+			keptLow[column] = Math.min(keptLow[column], samples.y(k));
+			keptHigh[column] = Math.max(keptHigh[column], samples.y(k));
+		}
+		Assertions.assertArrayEquals(low, keptLow);
+		Assertions.assertArrayEquals(high, keptHigh);
+
+		int evaluated = PixelSampler.sample(new SingleVariate("sin(x)", -1e6, 1e6), -1e6, 1e6, 300, -1e6,
+				300 / 2e6, new TileCache(1 << 20), samples);
+		Assertions.assertTrue(evaluated <= 300 * PixelSampler.PER_COLUMN + 2 * TileCache.TILE, evaluated + " evaluations");
+		Assertions.assertTrue(samples.size() <= 4 * 301, samples.size() + " samples kept");
+		Assertions.assertTrue(PixelSampler.isFinerThanPixels(0.1, 300 / 2e6));
+		Assertions.assertFalse(PixelSampler.isFinerThanPixels(0.1, 15));
+	}
+
+	@Test
+	void testTileCacheEvaluatesOnlyExposedStrip() {
+		TileCache tiles = new TileCache(64 * TileCache.TILE_BYTES);
+		SingleVariate funct = new SingleVariate("x ^ 2 - 3", -10, 10);
+		SampleBuffer samples = new SampleBuffer();
+		Assertions.assertEquals(TileCache.TILE, tiles.sample(funct, 0, 15.9375, 0.0625, samples));
+		Assertions.assertEquals(256, samples.size());
+		for (int k = 0; k < samples.size(); k++) {
+			Assertions.assertEquals(k * 0.0625, samples.x(k));
+			Assertions.assertEquals(samples.x(k) * samples.x(k) - 3, samples.y(k), 1e-12);
+		}
+
+		// a pan by one unit only evaluates the tile coming into view
+		Assertions.assertEquals(TileCache.TILE, tiles.sample(funct, 1, 16.9375, 0.0625, samples));
+		Assertions.assertEquals(0, tiles.sample(new SingleVariate("x ^ 2 - 3", 1, 17), 1, 16.9375, 0.0625, samples));
+		Assertions.assertEquals(0.6, tiles.hitRate(), 1e-12);
+		Assertions.assertEquals(256, samples.size());
+		Assertions.assertEquals(-2, samples.y(0), 1e-12);
+
+		// another zoom level has tiles of its own
+		Assertions.assertEquals(TileCache.TILE, tiles.sample(funct, 0, 15.9375, 0.125, samples));
+		Assertions.assertEquals(3, tiles.size());
+
+		for (int tile = 0; tile < 100; tile++) {
+			tiles.sample(funct, tile * 32.0, tile * 32.0 + 1, 0.0625, samples);
+		}
+		Assertions.assertEquals(64, tiles.size());
+		Assertions.assertTrue(tiles.bytes() <= tiles.budget());
+		Assertions.assertTrue(tiles.evictions() > 0);
+	}
+
+	@Test
+	void testBreakAtPolesSplitsStepSamples() {
+		Function funct = new SingleVariate("tan(x)", 1, 2);
+		SampleBuffer samples = new SampleBuffer();
+		new TileCache(TileCache.TILE_BYTES).sample(funct, 1.0, 2.0, 0.0625, samples);
+		int n = samples.size();
+		IntervalSampler.breakAtPoles(funct, samples);
+		Assertions.assertEquals(n + 1, samples.size());
+		int nans = 0;
+		for (int k = 0; k < samples.size(); k++) {
+			if (Double.isNaN(samples.y(k))) {
+				nans++;
+				Assertions.assertTrue(samples.x(k - 1) < Math.PI / 2 && Math.PI / 2 < samples.x(k + 1));
+			} else {
+				// every other sample stays on the lattice it was evaluated at
+				Assertions.assertEquals(Math.tan(samples.x(k)), samples.y(k), 1e-12 * Math.max(1, Math.abs(samples.y(k))));
+				Assertions.assertEquals(0.0, samples.x(k) % 0.0625);
+			}
+		}
+		Assertions.assertEquals(1, nans);
+	}
+
+	@Test
+	void testExpressionSharedAcrossThreads() throws Exception {
+		int threshold = ExpressionJit.getThreshold();
+		ExpressionJit.setThreshold(50);
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			Expression shared = new Expression("( sin ( x ) ) * x ^ 2");
+			CountDownLatch start = new CountDownLatch(1);
+			List<Future<Expression>> derivatives = new ArrayList<>();
+			for (int t = 0; t < 4; t++) {
+				derivatives.add(pool.submit(() -> {
+					start.await();
+					Expression derivative = shared.derivative();
+					for (int k = 0; k < 2000; k++) {
+						double x = k * 0.01;
+						Assertions.assertEquals(Math.sin(x) * x * x, shared.valueAt(x), 1e-12);
+						Assertions.assertEquals(Math.cos(x) * x * x + 2 * x * Math.sin(x), derivative.valueAt(x), 1e-9);
+					}
+					return derivative;
+				}));
+			}
+			start.countDown();
+			for (Future<Expression> derivative : derivatives) {
+				Assertions.assertSame(derivatives.get(0).get(), derivative.get());
+			}
+			Assertions.assertTrue(shared.isJitCompiled());
+		} finally {
+			pool.shutdown();
+			ExpressionJit.setThreshold(threshold);
+		}
+	}
+
+	@Test
+	void testRenderPipelinePublishesOnlyLatestGeneration() throws InterruptedException {
+		// the publisher queues like Platform.runLater, the test runs the queue
+		List<Runnable> queued = Collections.synchronizedList(new ArrayList<>());
+		List<List<Double>> published = Collections.synchronizedList(new ArrayList<>());
+		RenderPipeline<Double> renders = new RenderPipeline<>(2, queued::add);
+		List<Function> functs = Arrays.asList(new SingleVariate("x ^ 2", -10, 10), null);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch stopped = new CountDownLatch(1);
+
+		long first = renders.submit(functs, funct -> {
+			started.countDown();
+			try {
+				while (true) {
+					RenderPipeline.checkCancelled();
+				}
+			} finally {
+				stopped.countDown();
+			}
+		}, published::add);
+		Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+		long second = renders.submit(functs, funct -> funct.calc(3.0).getY(), published::add);
+		Assertions.assertTrue(second > first);
+		Assertions.assertFalse(renders.isCurrent(first));
+
+		// the superseded render is interrupted mid-flight and never publishes
+		Assertions.assertTrue(stopped.await(5, TimeUnit.SECONDS));
+		awaitSize(queued, 1);
+		queued.get(0).run();
+		Assertions.assertEquals(1, published.size());
+		Assertions.assertEquals(Arrays.asList(9.0, null), published.get(0));
+
+		// a result already queued is dropped if a later request is made before it runs
+		renders.submit(functs, funct -> funct.calc(4.0).getY(), published::add);
+		awaitSize(queued, 2);
+		renders.cancel();
+		queued.get(1).run();
+		Assertions.assertEquals(1, published.size());
+		renders.shutdown();
+
+		// without workers the request is rendered and published at once
+		RenderPipeline<Double> inline = new RenderPipeline<>(0, queued::add);
+		inline.submit(functs, funct -> funct.calc(2.0).getY(), published::add);
+		Assertions.assertEquals(Arrays.asList(4.0, null), published.get(1));
+	}
+
+	private static void awaitSize(List<?> list, int size) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (list.size() < size && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		Assertions.assertEquals(size, list.size());
+	}
+}
@@ -8,6 +8,7 @@ public abstract class Function implements Serializable {
 	
 	private static final long serialVersionUID = 1L;
 	private String color = "Black";
+	private boolean adaptive = false;    // sampled by AdaptiveSampler instead of on the step grid
     private double minRange;
     private double maxRange;
 
@@ -21,19 +22,114 @@ public abstract class Function implements Serializable {
      * @return A mapping of doubles rounded to the nearest tenth to the output point
      */
     public Map<Double, Point> evaluateFunction(double step) {
+        double[] grid = stepGrid(minRange, maxRange, step);
+        SampleBuffer samples = new SampleBuffer(grid.length);
+        this.evaluateInto(samples, grid);
         Map<Double, Point> mapping = new HashMap<>();
-        for (double i = minRange; i <= maxRange; i += step) {
-            i = ((i*10)) / 10;
-            mapping.put(i, this.calc(i));
+        for (int k = 0; k < grid.length; k++) {
+            mapping.put(grid[k], new Point(samples.x(k), samples.y(k)));
         }
         return mapping;
     }
+
+    /** Evaluates the function at every value of a grid into a buffer, replacing its samples
+     * @param samples The buffer to fill, grown if it is too small
+     * @param grid The input values
+     */
+    void evaluateInto(SampleBuffer samples, double[] grid) {
+        samples.reset(grid.length);
+        this.calc(grid, samples.xs(), samples.ys());
+        samples.setSize(grid.length);
+    }
+
+    /** Builds the values from min to max, stepping by step, each rounded to the nearest tenth
+     * @param min The first value
+     * @param max The largest value
+     * @param step The stepping amount for the next value
+     * @return The grid
+     */
+    static double[] stepGrid(double min, double max, double step) {
+        int count = 0;
+        for (double i = min; i <= max; i += step) {
+            i = Math.round((i * 10)) / 10.0;
+            count++;
+        }
+        double[] grid = new double[count];
+        count = 0;
+        for (double i = min; i <= max; i += step) {
+            i = Math.round((i * 10)) / 10.0;
+            grid[count++] = i;
+        }
+        return grid;
+    }
 	/**
 	 * Calculates f(x)
 	 * @param x x value
 	 * @return (x, f(x)), or (x, NaN) if the equation is invalid
 	 */
-	abstract Point calc(double x);
+	public Point calc(double x) {
+		double[] xs = new double[1];
+		double[] ys = new double[1];
+		this.calcInto(x, xs, ys, 0);
+		return new Point(xs[0], ys[0]);
+	}
+
+	/**
+	 * Calculates the point of the function at one input into the caller's arrays,
+	 * without allocating once the equation is compiled
+	 * @param x the input value
+	 * @param xs where the x coordinate is stored
+	 * @param ys where the y coordinate is stored, NaN where the equation is invalid or undefined
+	 * @param index the index in xs and ys to store at
+	 */
+	abstract void calcInto(double x, double[] xs, double[] ys, int index);
+
+	/**
+	 * Calculates the function at every value of a grid
+	 * @param grid the input values
+	 * @param xs filled with the x coordinate of each point
+	 * @param ys filled with the y coordinate of each point, NaN where the equation is invalid
+	 */
+	void calc(double[] grid, double[] xs, double[] ys) {
+		for (int i = 0; i < grid.length; i++) {
+			this.calcInto(grid[i], xs, ys, i);
+		}
+	}
+
+	/**
+	 * Calculates the function on the evenly stepped grid start + k * step
+	 * @param start the first input value
+	 * @param step the distance between input values
+	 * @param xs filled with the x coordinate of each point, one per grid point
+	 * @param ys filled with the y coordinate of each point, NaN where the equation is invalid
+	 */
+	void calcGrid(double start, double step, double[] xs, double[] ys) {
+		double[] grid = new double[xs.length];
+		for (int k = 0; k < grid.length; k++) {
+			grid[k] = start + k * step;
+		}
+		this.calc(grid, xs, ys);
+	}
+
+	/**
+	 * Bounds the y values of the function over a range of inputs
+	 * @param from the lowest input value
+	 * @param to the highest input value
+	 * @param out filled with a lower and an upper bound of y; the lower one is above the upper one
+	 *            if the function is undefined over the whole range
+	 * @return true if the function can be bounded, false if out was left unchanged
+	 */
+	boolean bound(double from, double to, double[] out) {
+		return false;
+	}
+
+	/**
+	 * Returns what identifies the curve in the TileCache, so functions of the same expression share tiles
+	 * @return the key, by default the function itself
+	 */
+	Object tileKey() {
+		return this;
+	}
 
 	String getColor() {
 	    return this.color;
@@ -43,6 +139,14 @@ public abstract class Function implements Serializable {
 	    this.color = color;
     }
 
+	boolean isAdaptive() {
+	    return this.adaptive;
+    }
+
+	void setAdaptive(boolean adaptive) {
+	    this.adaptive = adaptive;
+    }
+
 	double getMinRange() {
 	    return this.minRange;
     }
@@ -0,0 +1,15 @@
+package src;
+
+/**
+ * FunctionLibrary is the service interface for adding functions to the
+ * calculator. Implementations are found with java.util.ServiceLoader, listed
+ * in META-INF/services/src.FunctionLibrary, and need a public no-argument
+ * constructor.
+ */
+public interface FunctionLibrary {
+
+    /** Adds the functions of the library to a registry
+     * @param registry The registry to add the functions to
+     */
+    void registerFunctions(FunctionRegistry registry);
+}
@@ -0,0 +1,104 @@
+package src;
+
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+import java.util.regex.Pattern;
+
+/**
+ * FunctionRegistry holds the functions an expression may call besides the
+ * built-in ones.
+ * <p>
+ * Names are bound when an expression is parsed: the FUNC node keeps the
+ * UserFunction and the compiled Program calls it directly, so nothing is looked
+ * up while sampling. The default registry is filled once with the
+ * StandardFunctions, then with every other FunctionLibrary found by
+ * ServiceLoader, which may replace them.
+ */
+public final class FunctionRegistry {
+
+    private static final Pattern NAME = Pattern.compile("[A-Za-z][A-Za-z0-9_]*");
+
+    private final Map<String, UserFunction> functions = new ConcurrentHashMap<>();
+
+    /**
+     * Holder loads the default registry the first time it is used
+     */
+    private static final class Holder {
+        static final FunctionRegistry DEFAULT = loadDefault();
+    }
+
+    /** Returns the registry used by expressions, with every discovered library
+     * @return The default registry
+     */
+    public static FunctionRegistry getDefault() {
+        return Holder.DEFAULT;
+    }
+
+    private static FunctionRegistry loadDefault() {
+        FunctionRegistry registry = new FunctionRegistry();
+        // registered directly, so the built-ins work without META-INF on the classpath
+        new StandardFunctions().registerFunctions(registry);
+        for (FunctionLibrary library : ServiceLoader.load(FunctionLibrary.class, FunctionRegistry.class.getClassLoader())) {
+            if (!(library instanceof StandardFunctions)) {
+                library.registerFunctions(registry);
+            }
+        }
+        return registry;
+    }
+
+    /** Adds a function of one argument
+     * @param name The name used in expressions
+     * @param implementation The implementation
+     * @throws IllegalArgumentException if the name cannot be used
+     */
+    public void register(String name, DoubleUnaryOperator implementation) {
+        register(UserFunction.of(name, implementation));
+    }
+
+    /** Adds a function of one argument together with its derivative
+     * @param name The name used in expressions
+     * @param implementation The implementation
+     * @param derivative The derivative, used by symbolic differentiation
+     * @throws IllegalArgumentException if the name cannot be used
+     */
+    public void register(String name, DoubleUnaryOperator implementation, DoubleUnaryOperator derivative) {
+        register(UserFunction.of(name, implementation, derivative));
+    }
+
+    /** Adds a function of two arguments, called as name(a, b)
+     * @param name The name used in expressions
+     * @param implementation The implementation
+     * @throws IllegalArgumentException if the name cannot be used
+     */
+    public void register(String name, DoubleBinaryOperator implementation) {
+        register(UserFunction.of(name, implementation));
+    }
+
+    /** Adds a function, replacing any registered function with the same name
+     * <p>
+     * Expressions already parsed keep the function they were bound to.
+     * @param function The function to add
+     * @throws IllegalArgumentException if the name cannot be used
+     */
+    public void register(UserFunction function) {
+        String name = function.name();
+        if (!NAME.matcher(name).matches() || name.equals("x") || name.equals("t")) {
+            throw new IllegalArgumentException("INVALID FUNCTION NAME: " + name);
+        }
+        if (BuiltinFunction.forName(name) != null) {
+            throw new IllegalArgumentException("BUILT-IN FUNCTION: " + name);
+        }
+        this.functions.put(name, function);
+    }
+
+    /** Finds the function with the given name
+     * @param name The name as written in an expression
+     * @return The function, or null if there is none with that name
+     */
+    public UserFunction lookup(String name) {
+        return this.functions.get(name);
+    }
+}
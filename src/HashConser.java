@@ -0,0 +1,110 @@
+package src;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * HashConser turns syntax trees into a DAG in which structurally equal
+ * subtrees are the same node, so a compiled Program computes them once.
+ * <p>
+ * One HashConser can intern several trees, which then share nodes with each
+ * other, as the two halves of a Parametric do. The input trees are not
+ * modified; nodes whose children change are copied. Sharing can be turned off
+ * with the system property "calculator.cse" set to false.
+ */
+final class HashConser {
+
+    private static volatile boolean enabled = !"false".equals(System.getProperty("calculator.cse"));
+
+    private final Map<Key, ASTNode> table = new HashMap<>();
+    private final Map<ASTNode, ASTNode> canonical = new IdentityHashMap<>();
+
+    /** Returns whether expressions are hash-consed when they are built
+     * @return True if sharing is enabled
+     */
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Sets whether expressions are hash-consed when they are built
+     * @param share True to enable sharing
+     */
+    static void setEnabled(boolean share) {
+        enabled = share;
+    }
+
+    /** Returns the canonical node for a tree, sharing equal subtrees
+     * @param root The root of the tree
+     * @return The canonical node, equal in structure to the input
+     */
+    ASTNode intern(ASTNode root) {
+        if (root == null) {
+            return null;
+        }
+        for (ASTNode node : ASTNode.postOrder(root)) {
+            if (!this.canonical.containsKey(node)) {
+                this.canonical.put(node, share(node));
+            }
+        }
+        return this.canonical.get(root);
+    }
+
+    /** Returns the canonical node for a node whose children are already interned
+     * @param node The node to intern
+     * @return The shared node equal in structure to the input
+     */
+    private ASTNode share(ASTNode node) {
+        ASTNode left = node.getLeft() == null ? null : this.canonical.get(node.getLeft());
+        ASTNode right = node.getRight() == null ? null : this.canonical.get(node.getRight());
+        Key key = new Key(node, left, right);
+        ASTNode shared = this.table.get(key);
+        if (shared == null) {
+            shared = node;
+            if (left != node.getLeft() || right != node.getRight()) {
+                shared = node.copy();
+                shared.setLeft(left);
+                shared.setRight(right);
+            }
+            this.table.put(key, shared);
+        }
+        return shared;
+    }
+
+    /**
+     * Key identifies a node by its token and the identity of its canonical children
+     */
+    private static final class Key {
+
+        private final Lexer.TokenType type;
+        private final Object value;
+        private final ASTNode left;
+        private final ASTNode right;
+
+        Key(ASTNode node, ASTNode left, ASTNode right) {
+            this.type = node.getTokenType();
+            // numbers are equal by value, so "2" and "2.0" share a node
+            this.value = this.type == Lexer.TokenType.NUM
+                    ? (Object) Double.doubleToLongBits(node.getNumber())
+                    : node.getTokenVal();
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key o = (Key) obj;
+            return o.type == this.type && o.value.equals(this.value) && o.left == this.left && o.right == this.right;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = this.type.hashCode() * 31 + this.value.hashCode();
+            hash = hash * 31 + System.identityHashCode(this.left);
+            return hash * 31 + System.identityHashCode(this.right);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * IncrementalParser parses successive versions of one expression as it is
+ * edited, such as the text of an equation field on every keystroke.
+ * <p>
+ * The tokens before and after an edit are kept, those after it shifted, and
+ * only the text in between is tokenized again. Parenthesized groups whose
+ * tokens the edit did not touch are copied from the previous SyntaxTree as a
+ * run of array entries instead of being parsed again. The result is the same
+ * tree a full parse of the new text would build. A version that does not
+ * parse still updates the tokens and groups, so the next edit reuses them.
+ */
+final class IncrementalParser {
+
+    private final FunctionRegistry registry;
+    private final Lexer lexer = new Lexer();
+    private String source = "";
+    private List<Lexer.Token> tokens = Collections.emptyList();
+    private SyntaxTree tree;
+    private int[] groups;
+    private int groupCount = 0;
+    private int reusedNodes = 0;
+
+    /**
+     * Constructor for a parser binding function names to the default registry
+     */
+    IncrementalParser() {
+        this(FunctionRegistry.getDefault());
+    }
+
+    /**
+     * Constructor for a parser binding function names to the given registry
+     *
+     * @param registry The registry of functions besides the built-in ones
+     */
+    IncrementalParser(FunctionRegistry registry) {
+        this.registry = registry;
+    }
+
+    /** Parses a new version of the text, finding the edit by comparing it with the last version
+     * @param text The new text
+     * @return The syntax tree of the new text
+     * @throws SyntaxException if the new text cannot be parsed
+     */
+    SyntaxTree reparse(String text) {
+        int prefix = 0;
+        int limit = Math.min(text.length(), this.source.length());
+        while (prefix < limit && text.charAt(prefix) == this.source.charAt(prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < limit - prefix
+                && text.charAt(text.length() - 1 - suffix) == this.source.charAt(this.source.length() - 1 - suffix)) {
+            suffix++;
+        }
+        return update(text, prefix, this.source.length() - prefix - suffix, text.length() - prefix - suffix);
+    }
+
+    /** Parses the last version of the text with one range replaced
+     * @param start The index of the first replaced char
+     * @param removed The number of replaced chars
+     * @param inserted The text replacing them
+     * @return The syntax tree of the new text
+     * @throws SyntaxException if the new text cannot be parsed
+     */
+    SyntaxTree edit(int start, int removed, String inserted) {
+        String text = this.source.substring(0, start) + inserted + this.source.substring(start + removed);
+        return update(text, start, removed, inserted.length());
+    }
+
+    /** Returns the text of the last version
+     * @return The text
+     */
+    String source() {
+        return this.source;
+    }
+
+    /** Returns the tokens of the last version
+     * @return The tokens
+     */
+    List<Lexer.Token> tokens() {
+        return Collections.unmodifiableList(this.tokens);
+    }
+
+    /** Returns how many nodes the last parse copied instead of parsing
+     * @return The number of reused nodes
+     */
+    int reusedNodes() {
+        return this.reusedNodes;
+    }
+
+    private SyntaxTree update(String text, int start, int removed, int inserted) {
+        List<Lexer.Token> previous = this.tokens;
+        List<Lexer.Token> next = new ArrayList<>(previous.size() + 4);
+        int kept = 0;
+        while (kept < previous.size() && isBefore(previous.get(kept), start)) {
+            next.add(previous.get(kept++));
+        }
+        int from = kept == 0 ? 0 : end(previous.get(kept - 1));
+        int delta = inserted - removed;
+        int resumedFrom = this.lexer.scan(text, from, start + inserted, previous, kept, delta, next);
+        int tokenShift = next.size() - resumedFrom;
+        for (int i = resumedFrom; i < previous.size(); i++) {
+            Lexer.Token tok = previous.get(i);
+            next.add(new Lexer.Token(tok.tokenType, tok.tokenVal, tok.offset + delta, tok.value));
+        }
+
+        Parser parser = new Parser(next, this.registry);
+        parser.recordGroups();
+        if (this.tree != null) {
+            parser.reuse(this.tree, this.groups, this.groupCount, kept, resumedFrom, tokenShift);
+        }
+        this.source = text;
+        this.tokens = next;
+        try {
+            return parser.parse();
+        } finally {
+            this.tree = parser.tree();
+            this.groups = parser.groups();
+            this.groupCount = parser.groupCount();
+            this.reusedNodes = parser.reusedNodes();
+        }
+    }
+
+    /** Checks if a token is unchanged by an edit starting at a position
+     * @param tok The token
+     * @param start The index of the first edited char
+     * @return True if the token ends before the edit, or is a single char terminal ending at it;
+     *         a word ending right at the edit may run on into it
+     */
+    private static boolean isBefore(Lexer.Token tok, int start) {
+        int end = end(tok);
+        if (end == start) {
+            switch (tok.tokenType) {
+                case LPAREN:
+                case RPAREN:
+                case COMMA:
+                case EXP:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+        return end < start;
+    }
+
+    private static int end(Lexer.Token tok) {
+        return tok.offset + tok.tokenVal.length();
+    }
+}
@@ -0,0 +1,237 @@
+package src;
+
+/**
+ * Interval holds the interval arithmetic rules for Program.evaluateInterval.
+ * <p>
+ * Intervals live in two parallel arrays of lower and upper bounds. An empty
+ * interval, where the expression is undefined, has its lower bound above its
+ * upper bound. Every computed bound is widened by one ulp, so rounding in
+ * Math functions cannot make a bound too tight.
+ */
+final class Interval {
+
+    private static final double TWO_PI = 2.0 * Math.PI;
+    private static final double HALF_PI = 0.5 * Math.PI;
+    private static final double SLACK = 1e-9;    // in periods, extrema this close to the range are included
+    private static final double MAX_TRIG_ARGUMENT = 1e8;    // beyond this the phase is too coarse to track
+
+    private Interval() {
+    }
+
+    /** Applies a two-operand instruction to the intervals at i and i + 1, leaving the result at i
+     * @param op The opcode
+     * @param lo The lower bounds
+     * @param hi The upper bounds
+     * @param i The index of the first operand
+     * @throws ExpressionException
+     */
+    static void binary(int op, double[] lo, double[] hi, int i) throws ExpressionException {
+        double al = lo[i];
+        double ah = hi[i];
+        double bl = lo[i + 1];
+        double bh = hi[i + 1];
+        switch (op) {
+            case Program.ADD:
+                set(lo, hi, i, al + bl, ah + bh);
+                break;
+            case Program.SUB:
+                set(lo, hi, i, al - bh, ah - bl);
+                break;
+            case Program.MUL:
+                corners(lo, hi, i, al * bl, al * bh, ah * bl, ah * bh);
+                break;
+            case Program.DIV:
+                if (bl <= 0.0 && bh >= 0.0) {
+                    entire(lo, hi, i);    // a pole, or division by zero
+                } else {
+                    corners(lo, hi, i, al / bl, al / bh, ah / bl, ah / bh);
+                }
+                break;
+            case Program.POW:
+                power(lo, hi, i, al, ah, bl, bh);
+                break;
+            case Program.CALL2:
+                entire(lo, hi, i);
+                break;
+            default:
+                throw new ExpressionException("Invalid opcode");
+        }
+    }
+
+    /** Applies a one-operand instruction to the interval at i in place
+     * @param insn The instruction
+     * @param lo The lower bounds
+     * @param hi The upper bounds
+     * @param i The index of the operand
+     * @throws ExpressionException
+     */
+    static void unary(int insn, double[] lo, double[] hi, int i) throws ExpressionException {
+        double l = lo[i];
+        double h = hi[i];
+        switch (insn & 0xFF) {
+            case Program.SQUARE:
+                integerPower(lo, hi, i, l, h, 2);
+                break;
+            case Program.POWI:
+                integerPower(lo, hi, i, l, h, Program.signedOperand(insn));
+                break;
+            case Program.SQRT:
+                if (h < 0.0) {
+                    empty(lo, hi, i);
+                } else {
+                    set(lo, hi, i, Math.sqrt(Math.max(l, 0.0)), Math.sqrt(h));
+                }
+                break;
+            case Program.EXP:
+                set(lo, hi, i, Math.exp(l), Math.exp(h));
+                break;
+            case Program.LN:
+                logarithm(lo, hi, i, l, h, false);
+                break;
+            case Program.LOG:
+                logarithm(lo, hi, i, l, h, true);
+                break;
+            case Program.SIN:
+                periodic(lo, hi, i, l, h, Math.sin(l), Math.sin(h), HALF_PI, -HALF_PI);
+                break;
+            case Program.COS:
+                periodic(lo, hi, i, l, h, Math.cos(l), Math.cos(h), 0.0, Math.PI);
+                break;
+            case Program.TAN:
+                if (h - l >= Math.PI || !(Math.abs(l) < MAX_TRIG_ARGUMENT && Math.abs(h) < MAX_TRIG_ARGUMENT)
+                        || contains(l, h, HALF_PI, Math.PI)) {
+                    entire(lo, hi, i);
+                } else {
+                    set(lo, hi, i, Math.tan(l), Math.tan(h));
+                }
+                break;
+            case Program.ASIN:
+                if (h < -1.0 || l > 1.0) {
+                    empty(lo, hi, i);
+                } else {
+                    set(lo, hi, i, Math.asin(Math.max(l, -1.0)), Math.asin(Math.min(h, 1.0)));
+                }
+                break;
+            case Program.ACOS:
+                if (h < -1.0 || l > 1.0) {
+                    empty(lo, hi, i);
+                } else {
+                    set(lo, hi, i, Math.acos(Math.min(h, 1.0)), Math.acos(Math.max(l, -1.0)));
+                }
+                break;
+            case Program.ATAN:
+                set(lo, hi, i, Math.atan(l), Math.atan(h));
+                break;
+            case Program.CALL1:
+                entire(lo, hi, i);
+                break;
+            default:
+                throw new ExpressionException("Invalid opcode");
+        }
+    }
+
+    /** Bounds a^b over two intervals
+     */
+    private static void power(double[] lo, double[] hi, int i, double al, double ah, double bl, double bh) {
+        if (bl == bh) {
+            double n = bl;
+            if (n == Math.rint(n) && Math.abs(n) <= 0x1p53) {
+                integerPower(lo, hi, i, al, ah, n);
+            } else if (ah < 0.0) {
+                empty(lo, hi, i);    // negative bases have no real fractional powers
+            } else if (n > 0.0) {
+                set(lo, hi, i, Math.pow(Math.max(al, 0.0), n), Math.pow(ah, n));
+            } else {
+                set(lo, hi, i, Math.pow(ah, n), Math.pow(Math.max(al, 0.0), n));
+            }
+        } else if (al >= 0.0) {
+            // monotone in each argument for a non-negative base, so the extremes are at the corners
+            corners(lo, hi, i, Math.pow(al, bl), Math.pow(al, bh), Math.pow(ah, bl), Math.pow(ah, bh));
+        } else {
+            entire(lo, hi, i);
+        }
+    }
+
+    /** Bounds a^n for an integer n
+     */
+    private static void integerPower(double[] lo, double[] hi, int i, double l, double h, double n) {
+        boolean even = n % 2.0 == 0.0;
+        if (n == 0.0) {
+            set(lo, hi, i, 1.0, 1.0);
+        } else if (n < 0.0 && l <= 0.0 && h >= 0.0) {
+            entire(lo, hi, i);    // pole at zero
+        } else if (!even) {
+            // odd powers are increasing, odd negative powers decreasing on each side of the pole
+            if (n > 0.0) {
+                set(lo, hi, i, Math.pow(l, n), Math.pow(h, n));
+            } else {
+                set(lo, hi, i, Math.pow(h, n), Math.pow(l, n));
+            }
+        } else if (l >= 0.0 || h <= 0.0) {
+            // even powers are monotone on each side of zero
+            double a = Math.pow(l, n);
+            double b = Math.pow(h, n);
+            set(lo, hi, i, Math.min(a, b), Math.max(a, b));
+        } else {
+            set(lo, hi, i, 0.0, Math.max(Math.pow(l, n), Math.pow(h, n)));
+        }
+    }
+
+    private static void logarithm(double[] lo, double[] hi, int i, double l, double h, boolean decimal) {
+        if (h < 0.0) {
+            empty(lo, hi, i);
+        } else {
+            double low = l <= 0.0 ? Double.NEGATIVE_INFINITY : decimal ? Math.log10(l) : Math.log(l);
+            set(lo, hi, i, low, decimal ? Math.log10(h) : Math.log(h));
+        }
+    }
+
+    /** Bounds sin or cos, whose maxima and minima repeat every 2 pi
+     * @param fl The function at the lower end
+     * @param fh The function at the upper end
+     * @param maxAt The phase of the maxima
+     * @param minAt The phase of the minima
+     */
+    private static void periodic(double[] lo, double[] hi, int i, double l, double h, double fl, double fh,
+                                 double maxAt, double minAt) {
+        if (h - l >= TWO_PI || !(Math.abs(l) < MAX_TRIG_ARGUMENT && Math.abs(h) < MAX_TRIG_ARGUMENT)) {
+            set(lo, hi, i, -1.0, 1.0);
+            return;
+        }
+        double low = contains(l, h, minAt, TWO_PI) ? -1.0 : Math.min(fl, fh);
+        double high = contains(l, h, maxAt, TWO_PI) ? 1.0 : Math.max(fl, fh);
+        set(lo, hi, i, low, high);
+    }
+
+    /** Checks whether phase + k * period lies in [l, h] for some integer k, erring towards yes
+     */
+    private static boolean contains(double l, double h, double phase, double period) {
+        double k = Math.ceil((l - phase) / period - SLACK);
+        return phase + k * period <= h + SLACK * period;
+    }
+
+    private static void corners(double[] lo, double[] hi, int i, double a, double b, double c, double d) {
+        set(lo, hi, i, Math.min(Math.min(a, b), Math.min(c, d)), Math.max(Math.max(a, b), Math.max(c, d)));
+    }
+
+    /** Stores a bound, widened outwards by one ulp, or the whole line if a bound is NaN
+     */
+    private static void set(double[] lo, double[] hi, int i, double l, double h) {
+        if (Double.isNaN(l) || Double.isNaN(h)) {
+            entire(lo, hi, i);
+            return;
+        }
+        lo[i] = Math.nextDown(l);
+        hi[i] = Math.nextUp(h);
+    }
+
+    private static void entire(double[] lo, double[] hi, int i) {
+        lo[i] = Double.NEGATIVE_INFINITY;
+        hi[i] = Double.POSITIVE_INFINITY;
+    }
+
+    private static void empty(double[] lo, double[] hi, int i) {
+        lo[i] = Double.POSITIVE_INFINITY;
+        hi[i] = Double.NEGATIVE_INFINITY;
+    }
+}
@@ -0,0 +1,94 @@
+package src;
+
+import java.util.Arrays;
+
+/**
+ * IntervalSampler uses interval bounds to find where a sampled curve crosses
+ * a pole, such as those of tan and 1/x, so the view does not draw a vertical
+ * line across it.
+ * <p>
+ * Each step that changes sign is refined by bisection, to tell a pole, where
+ * the function is unbounded on every scale, from a steep but continuous curve.
+ */
+final class IntervalSampler {
+
+    private static final int MAX_REFINE = 12;
+
+    private IntervalSampler() {
+    }
+
+    /** Marks the steps of a curve where it crosses a pole
+     * @param funct The function
+     * @param xs The inputs, in increasing order, which are also the x coordinates
+     * @param ys The values at the inputs
+     * @param n The number of samples
+     * @param breaks Set at k when the curve has a pole between samples k - 1 and k
+     */
+    static void markPoles(Function funct, double[] xs, double[] ys, int n, boolean[] breaks) {
+        Arrays.fill(breaks, 0, n, false);
+        double[] bounds = new double[2];
+        if (n < 2 || !funct.bound(xs[0], xs[n - 1], bounds)) {
+            return;
+        }
+        for (int k = 1; k < n; k++) {
+            if (changesSign(ys[k - 1], ys[k])) {
+                breaks[k] = hasPole(funct, xs[k - 1], xs[k], bounds, 0);
+            }
+        }
+    }
+
+    /** Splits a curve where it crosses a pole, by a NaN sample between the two sides
+     * @param funct The function
+     * @param samples The samples in increasing input order, changed in place
+     */
+    static void breakAtPoles(Function funct, SampleBuffer samples) {
+        int n = samples.size();
+        boolean[] breaks = new boolean[n];
+        markPoles(funct, samples.xs(), samples.ys(), n, breaks);
+        int count = 0;
+        for (boolean pole : breaks) {
+            if (pole) {
+                count++;
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        double[] xs = Arrays.copyOf(samples.xs(), n);
+        double[] ys = Arrays.copyOf(samples.ys(), n);
+        samples.reset(n + count);
+        for (int k = 0; k < n; k++) {
+            if (breaks[k]) {
+                samples.add(0.5 * (xs[k - 1] + xs[k]), Double.NaN);
+            }
+            samples.add(xs[k], ys[k]);
+        }
+    }
+
+    /** Checks if a segment joins values of opposite sign, the only case where a pole draws a vertical line
+     */
+    private static boolean changesSign(double a, double b) {
+        return (a < 0.0 && b > 0.0) || (a > 0.0 && b < 0.0);
+    }
+
+    /** Checks by bisection whether the function is unbounded on every scale around a point of [a, b]
+     * @param funct The function
+     * @param a The lower end
+     * @param b The upper end
+     * @param bounds Scratch space for the bounds
+     * @param depth The number of bisections so far
+     * @return True if a pole was found
+     */
+    private static boolean hasPole(Function funct, double a, double b, double[] bounds, int depth) {
+        funct.bound(a, b, bounds);
+        if (bounds[0] > bounds[1]
+                || (bounds[0] != Double.NEGATIVE_INFINITY && bounds[1] != Double.POSITIVE_INFINITY)) {
+            return false;
+        }
+        double mid = 0.5 * (a + b);
+        if (depth == MAX_REFINE || mid <= a || mid >= b) {
+            return true;
+        }
+        return hasPole(funct, a, mid, bounds, depth + 1) || hasPole(funct, mid, b, bounds, depth + 1);
+    }
+}
@@ -3,40 +3,58 @@ package src;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Scanner;
 
 /**
  * Lexer implements an expression lexer for mathematical expression
+ * <p>
+ * The input is read once, one char at a time. It is split into words at
+ * whitespace and at the terminals "(", ")", "," and "^", except the "^" of
+ * "e^", "sin^-1", "cos^-1" and "tan^-1", which belongs to the function name.
+ * A word is a NUM if it is a decimal number such as "-2", "1.5" or "3e8",
+ * independent of the default locale; an operator or variable if it is one of
+ * those; and a FUNC otherwise.
  */
 class Lexer implements Serializable {
 
 	private static final long serialVersionUID = 1L;    // UID for serializable
-    private static String[] nonDigitTerminals = { "+", "-", "*", "/", "^", "(", ")" };
-    private static String[] variables = {"x", "t"};
 
     /**
      * Enumerates the possible tokens in the language
      */
     enum TokenType {
-        NUM, PLUS, MINUS, MUL, DIV, EXP, LPAREN, RPAREN, FUNC, VAR;
+        NUM, PLUS, MINUS, MUL, DIV, EXP, LPAREN, RPAREN, FUNC, VAR, COMMA;
     }
 
     /**
      * Represents a Token in the language
      */
-    class Token implements Serializable {
+    static class Token implements Serializable {
     	
     	private static final long serialVersionUID = 1L;    // UID for serializable
         TokenType tokenType;
         String tokenVal;
+        int offset;    // index of the first char in the source, -1 for tokens built by tree rewrites
+        double value;    // the number of a NUM token
 
         /** Constructor for the Token
          * @param tokenType The type of the token
          * @param tokenVal The String value of the Token
          */
         public Token(TokenType tokenType, String tokenVal) {
+            this(tokenType, tokenVal, -1, tokenType == TokenType.NUM ? Double.parseDouble(tokenVal) : Double.NaN);
+        }
+
+        /** Constructor for a Token read from a source string
+         * @param tokenType The type of the token
+         * @param tokenVal The String value of the Token
+         * @param offset The index of the first char of the token in the source
+         * @param value The number of a NUM token
+         */
+        Token(TokenType tokenType, String tokenVal, int offset, double value) {
             this.tokenType = tokenType;
             this.tokenVal = tokenVal;
+            this.offset = offset;
+            this.value = value;
         }
 
         /** Return a String of the token
@@ -57,7 +75,14 @@ class Lexer implements Serializable {
         }
     }
 
-    transient Scanner scanner;
+    /** Creates a token that does not come from tokenizing, for nodes built by tree rewrites
+     * @param type The type of the token
+     * @param val The String value of the token
+     * @return A new Token
+     */
+    static Token newToken(TokenType type, String val) {
+        return new Token(type, val);
+    }
 
     /** Produces a list of Tokens
      * @param arg The string to tokenize
@@ -65,24 +90,63 @@ class Lexer implements Serializable {
      */
     public List<Token> tokenize(String arg) {
         List<Token> result = new ArrayList<>();
-        arg = addWhiteSpaceAroundParensOrCaret(arg);
-        this.scanner = new Scanner(arg);
-        while (this.scanner.hasNext()) {
-            if (this.hasNextNumber()) {
-                addToken(this.scanner.next(), TokenType.NUM, result);
-            } else {
-                String next = this.scanner.next();
-                if (isNonDigitTerminal(next)) {
-                    TokenType type = matchNonDigitTerminalType(next);
-                    addToken(next, type, result);
-                } else if (isVariable(next)) {
-                    addToken(next, TokenType.VAR, result);
-                } else {
-                    addToken(next, TokenType.FUNC, result);
+        scan(arg, 0, arg.length(), null, 0, 0, result);
+        return result;
+    }
+
+    /** Tokenizes a string from a position until the tokens fall in step with those of an earlier version
+     * <p>
+     * The earlier version is the same text but for an edit ending at
+     * syncAfter. From syncAfter on, between words, at a char where one of the
+     * earlier tokens began, every token from there on is that earlier token
+     * shifted by delta, so scanning stops.
+     * @param arg The string to tokenize
+     * @param from Where to start, a position where no word is being read
+     * @param syncAfter The end of the edit in arg; scanning does not stop before it
+     * @param previous The tokens of the earlier version, or null to scan to the end
+     * @param previousFrom The first of the earlier tokens that may come after the edit
+     * @param delta The change in length made by the edit
+     * @param result The result list to append to
+     * @return The index of the earlier token scanning stopped at, or the number of earlier tokens if it
+     *         reached the end of the string
+     */
+    int scan(String arg, int from, int syncAfter, List<Token> previous, int previousFrom, int delta,
+            List<Token> result) {
+        int start = -1;    // first char of the word being read, -1 between words
+        int next = previousFrom;
+        for (int i = from; i < arg.length(); i++) {
+            // at the end of the edit the char before is new, which only matters to a "^"
+            if (start < 0 && previous != null && (i > syncAfter || i == syncAfter && arg.charAt(i) != '^')) {
+                while (next < previous.size() && previous.get(next).offset < i - delta) {
+                    next++;
+                }
+                if (next < previous.size() && previous.get(next).offset == i - delta) {
+                    return next;
+                }
+            }
+            char curr = arg.charAt(i);
+            if (Character.isWhitespace(curr)) {
+                addWord(arg, start, i, result);
+                start = -1;
+            } else if (curr == '(' || curr == ')' || curr == ',') {
+                addWord(arg, start, i, result);
+                start = -1;
+                addTerminal(curr, i, result);
+            } else if (curr == '^' && isSpecialString(arg, i)) {
+                if (arg.charAt(i - 1) == 'e') {
+                    addWord(arg, start, i + 1, result);    // "e^" takes the expr after it
+                    start = -1;
                 }
+            } else if (curr == '^') {
+                addWord(arg, start, i, result);
+                start = -1;
+                addTerminal(curr, i, result);
+            } else if (start < 0) {
+                start = i;
             }
         }
-        return result;
+        addWord(arg, start, arg.length(), result);
+        return previous == null ? 0 : previous.size();
     }
 
     /** Checks if the exponent char is part of 'e^', 'sin^-1', 'tan^-1'
@@ -98,55 +162,53 @@ class Lexer implements Serializable {
         return false;
     }
 
-    /** Adds a whitespace around All the Parens and exponents
-     * @param arg The expression to Change
-     * @return A cleaned string
+    /** Adds the token for a single char terminal
+     * @param curr One of ( ) , ^
+     * @param offset The index of the char
+     * @param result The result list to append to
      */
-    private String addWhiteSpaceAroundParensOrCaret(String arg) {
-        StringBuilder sb = new StringBuilder();
-        char curr;
-        for (int i = 0; i < arg.length(); i++) {
-            curr = arg.charAt(i);
-            if (curr == '^') {
-                if (isSpecialString(arg, i)) {
-                    sb.append(curr);
-                    if (arg.charAt(i - 1) == 'e') {
-                        sb.append(' ');
-                    }
-                } else {
-                    sb.append(' ');
-                    sb.append(curr);
-                    sb.append(' ');
-                }
-            } else if (curr == '(' || curr == ')') {
-                sb.append(' ');
-                sb.append(curr);
-                sb.append(' ');
-            } else {
-                sb.append(curr);
-            }
+    private void addTerminal(char curr, int offset, List<Token> result) {
+        switch (curr) {
+            case '(':
+                result.add(new Token(TokenType.LPAREN, "(", offset, Double.NaN));
+                break;
+            case ')':
+                result.add(new Token(TokenType.RPAREN, ")", offset, Double.NaN));
+                break;
+            case ',':
+                result.add(new Token(TokenType.COMMA, ",", offset, Double.NaN));
+                break;
+            default:
+                result.add(new Token(TokenType.EXP, "^", offset, Double.NaN));
+                break;
         }
-        return sb.toString();
     }
 
-    /**
-     * @param next Checks if the strng should be interpreted as a variable
-     * @return True if the string is a variable
+    /** Adds the token for a word
+     * @param arg The source string
+     * @param start The index of the first char of the word, or -1 if there is no word
+     * @param end The index after the last char of the word
+     * @param result The result list to append to
      */
-    private boolean isVariable(String next) {
-        for (String var : variables) {
-            if (next.equals(var))
-                return true;
+    private void addWord(String arg, int start, int end, List<Token> result) {
+        if (start < 0) {
+            return;
         }
-        return false;
+        String word = arg.substring(start, end);
+        if (isNumber(arg, start, end)) {
+            result.add(new Token(TokenType.NUM, word, start, Double.parseDouble(word)));
+            return;
+        }
+        TokenType type = matchWordType(word);
+        result.add(new Token(type, type == TokenType.FUNC ? word.intern() : word, start, Double.NaN));
     }
 
-    /** Matches a non-difit terminal to the correct type
-     * @param next The string to match
-     * @return The correct TokenType
+    /** Matches a word that is not a number to the correct type
+     * @param word The word to match
+     * @return The correct TokenType, FUNC for any word that is not an operator or variable
      */
-    private TokenType matchNonDigitTerminalType(String next) {
-        switch (next) {
+    private TokenType matchWordType(String word) {
+        switch (word) {
             case "+":
                 return TokenType.PLUS;
             case "-":
@@ -155,42 +217,62 @@ class Lexer implements Serializable {
                 return TokenType.MUL;
             case "/":
                 return TokenType.DIV;
-            case "^":
-                return TokenType.EXP;
-            case "(":
-                return TokenType.LPAREN;
-            case ")":
-                return TokenType.RPAREN;
-        }
-        return null;
-    }
-
-    /** Checks if the string is a non-digit terminal
-     * @param next The string to check
-     * @return True if the string is a non-digit terminal
-     */
-    private boolean isNonDigitTerminal(String next) {
-        for (String terminal: nonDigitTerminals) {
-            if (next.equals(terminal))
-                return true;
+            case "x":
+            case "t":
+                return TokenType.VAR;
+            default:
+                return TokenType.FUNC;
         }
-        return false;
     }
 
-    /** Adds a token to the results list
-     * @param val The value of the token
-     * @param type They type of the Token
-     * @param result The result list to append to
+    /** Checks if a word is a decimal number: an optional sign, digits with at most one
+     * point, and an optional exponent; or NaN or Infinity with an optional sign
+     * @param arg The source string
+     * @param start The index of the first char of the word
+     * @param end The index after the last char of the word
+     * @return True if the word is a number
      */
-    private void addToken(String val, TokenType type, List<Token> result) {
-       Token tok = new Token(type, val);
-       result.add(tok);
+    private static boolean isNumber(String arg, int start, int end) {
+        int i = start;
+        if (arg.charAt(i) == '+' || arg.charAt(i) == '-') {
+            i++;
+        }
+        if (arg.startsWith("NaN", i) || arg.startsWith("Infinity", i)) {
+            return end - i == (arg.charAt(i) == 'N' ? 3 : 8);
+        }
+        int digits = 0;
+        while (i < end && isDigit(arg.charAt(i))) {
+            i++;
+            digits++;
+        }
+        if (i < end && arg.charAt(i) == '.') {
+            i++;
+            while (i < end && isDigit(arg.charAt(i))) {
+                i++;
+                digits++;
+            }
+        }
+        if (digits == 0) {
+            return false;
+        }
+        if (i < end && (arg.charAt(i) == 'e' || arg.charAt(i) == 'E')) {
+            i++;
+            if (i < end && (arg.charAt(i) == '+' || arg.charAt(i) == '-')) {
+                i++;
+            }
+            int exponentDigits = 0;
+            while (i < end && isDigit(arg.charAt(i))) {
+                i++;
+                exponentDigits++;
+            }
+            if (exponentDigits == 0) {
+                return false;
+            }
+        }
+        return i == end;
     }
 
-    /** Checks if the next value is a number
-     * @return True if the next value is a number
-     */
-    private boolean hasNextNumber() {
-       return this.scanner.hasNextInt() || this.scanner.hasNextFloat();
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
     }
 }
@@ -0,0 +1,51 @@
+package src;
+
+import java.util.Arrays;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * LookupTable is a function given by a table of samples, linearly interpolated
+ * between them, for registering measured data as a UserFunction
+ */
+public final class LookupTable implements DoubleUnaryOperator {
+
+    private final double[] xs;
+    private final double[] ys;
+
+    /** Constructor for the LookupTable
+     * @param xs The sample positions, strictly increasing
+     * @param ys The sample values, one per position
+     * @throws IllegalArgumentException if the positions are not increasing or the lengths differ
+     */
+    public LookupTable(double[] xs, double[] ys) {
+        if (xs.length == 0 || xs.length != ys.length) {
+            throw new IllegalArgumentException("Table needs one value per position");
+        }
+        for (int i = 1; i < xs.length; i++) {
+            if (!(xs[i] > xs[i - 1])) {
+                throw new IllegalArgumentException("Table positions must be increasing");
+            }
+        }
+        this.xs = xs.clone();
+        this.ys = ys.clone();
+    }
+
+    /** Interpolates the table
+     * @param x The position
+     * @return The interpolated value, or NaN outside the table
+     */
+    @Override
+    public double applyAsDouble(double x) {
+        int i = Arrays.binarySearch(this.xs, x);
+        if (i >= 0) {
+            return this.ys[i];
+        }
+        int hi = -i - 1;
+        if (hi == 0 || hi == this.xs.length) {
+            return Double.NaN;
+        }
+        int lo = hi - 1;
+        double w = (x - this.xs[lo]) / (this.xs[hi] - this.xs[lo]);
+        return this.ys[lo] + w * (this.ys[hi] - this.ys[lo]);
+    }
+}
@@ -0,0 +1,67 @@
+package src;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * ModelChange describes one notification of a CalculatorModel to its
+ * observers: what changed since the previous notification, and the functions
+ * to plot. A notification with no kinds of change is a request to redraw.
+ */
+public final class ModelChange {
+
+    /**
+     * Kind names a part of the model that changed
+     */
+    public enum Kind {
+        /** Functions were added, replaced or removed */
+        FUNCTIONS,
+        /** The color or sampling of a function changed */
+        STYLE,
+        /** The bounds of the x or y axis changed */
+        VIEWPORT,
+        /** The distance between sampled x values changed */
+        STEP
+    }
+
+    private final Set<Kind> kinds;
+    private final List<Function> functions;
+
+    /** Constructor for the ModelChange
+     * @param kinds The parts of the model that changed, copied
+     * @param functions The functions of the model, with null for the empty rows
+     */
+    ModelChange(Set<Kind> kinds, List<Function> functions) {
+        this.kinds = kinds.isEmpty() ? Collections.<Kind>emptySet() : Collections.unmodifiableSet(EnumSet.copyOf(kinds));
+        this.functions = functions;
+    }
+
+    /** Returns the parts of the model that changed
+     * @return The kinds of change, empty for a request to redraw
+     */
+    public Set<Kind> getKinds() {
+        return this.kinds;
+    }
+
+    /** Checks if a part of the model changed
+     * @param kind The part of the model
+     * @return True if it changed
+     */
+    public boolean contains(Kind kind) {
+        return this.kinds.contains(kind);
+    }
+
+    /** Returns the functions to plot
+     * @return The functions of the model, with null for the empty rows
+     */
+    public List<Function> getFunctions() {
+        return this.functions;
+    }
+
+    @Override
+    public String toString() {
+        return "ModelChange" + this.kinds;
+    }
+}
@@ -1,6 +1,14 @@
 package src;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
@@ -204,4 +212,89 @@ class ModelTest {
 		
 	}
 	
+	@Test
+	void testApplyViewportNotifiesOnce() {
+		CalculatorModel model= new CalculatorModel();
+		model.addSingleVariateFunction(0, "2 * x");
+		List<ModelChange> changes= new ArrayList<>();
+		model.addObserver((o, arg) -> changes.add((ModelChange) arg));
+		
+		model.applyViewport(-5, 5, -10, 10, 0.05);
+		Assertions.assertEquals(1, changes.size());
+		Assertions.assertEquals(EnumSet.of(ModelChange.Kind.VIEWPORT, ModelChange.Kind.STEP), changes.get(0).getKinds());
+		Assertions.assertEquals(-5, model.getXMin());
+		Assertions.assertEquals(0.05, model.getStep());
+		Assertions.assertTrue(changes.get(0).getFunctions().get(0) != null);
+		
+		// a batch sends every change in it at commit
+		model.beginUpdate();
+		model.setColor(0, "RED");
+		model.removeEquation(0);
+		Assertions.assertEquals(1, changes.size());
+		model.commitUpdate();
+		Assertions.assertEquals(2, changes.size());
+		Assertions.assertEquals(EnumSet.of(ModelChange.Kind.FUNCTIONS, ModelChange.Kind.STYLE), changes.get(1).getKinds());
+		Assertions.assertThrows(IllegalStateException.class, () -> model.commitUpdate());
+	}
+	
+	@Test
+	void testNotificationsCoalescePerFrame() {
+		CalculatorModel model= new CalculatorModel();
+		List<ModelChange> changes= new ArrayList<>();
+		model.addObserver((o, arg) -> changes.add((ModelChange) arg));
+		List<Runnable> frame= new ArrayList<>();
+		model.setNotifier(frame::add);
+		
+		model.applyViewport(-9, 11, -10, 10, 0.1);
+		model.applyViewport(-8, 12, -10, 10, 0.1);
+		model.setStep(0.2);
+		Assertions.assertEquals(0, changes.size());
+		Assertions.assertEquals(1, frame.size());
+		
+		frame.remove(0).run();
+		Assertions.assertEquals(1, changes.size());
+		Assertions.assertEquals(EnumSet.of(ModelChange.Kind.VIEWPORT, ModelChange.Kind.STEP), changes.get(0).getKinds());
+		
+		// the next frame notifies again, a plain redraw names no change
+		model.updatePane();
+		Assertions.assertEquals(1, frame.size());
+		frame.remove(0).run();
+		Assertions.assertEquals(2, changes.size());
+		Assertions.assertTrue(changes.get(1).getKinds().isEmpty());
+	}
+	
+	@Test
+	void testAddDerivativeFunction() {
+		CalculatorModel model= new CalculatorModel();
+		model.addDerivativeFunction(1, "x ^ 2");
+		Assertions.assertTrue(model.getFunctionAtIndex(0) == null);
+		Assertions.assertEquals(6.0, model.getFunctionAtIndex(1).calc(3.0).getY());
+		
+		model.addDerivativeFunction(1, "x ^ 3");
+		Assertions.assertEquals(2, model.getFunctionList().size());
+		Assertions.assertEquals(27.0, model.getFunctionAtIndex(1).calc(3.0).getY());
+	}
+	
+	@Test
+	void testLoadSavedCalculator() throws IOException, ClassNotFoundException, ExpressionException {
+		// calculator.ser was saved by the first release, as the view saves on close
+		CalculatorModel model;
+		try (ObjectInputStream in= new ObjectInputStream(new FileInputStream("calculator.ser"))) {
+			model= (CalculatorModel) in.readObject();
+		}
+		Assertions.assertEquals("[x, t;t^2]", model.getFunctionList().toString());
+		Assertions.assertEquals(2.0, model.getFunctionAtIndex(0).calc(2.0).getY());
+		Assertions.assertEquals(4.0, model.getFunctionAtIndex(1).calc(2.0).getY());
+		
+		ByteArrayOutputStream bytes= new ByteArrayOutputStream();
+		try (ObjectOutputStream out= new ObjectOutputStream(bytes)) {
+			out.writeObject(model);
+		}
+		try (ObjectInputStream in= new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			CalculatorModel loaded= (CalculatorModel) in.readObject();
+			Assertions.assertEquals("[x, t;t^2]", loaded.getFunctionList().toString());
+			Assertions.assertEquals(4.0, loaded.getFunctionAtIndex(1).calc(2.0).getY());
+		}
+	}
+	
 }
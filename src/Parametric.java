@@ -1,10 +1,15 @@
 package src;
 
+import java.util.Arrays;
+
 public class Parametric extends Function {
 
+    private static final long serialVersionUID = -5075385157483705018L;    // computed from the first release, so saved graphs load
     private SingleVariate x;
     private SingleVariate y;
-    
+    private transient Program shared;    // both halves in one program, null if they share nothing
+    private transient volatile boolean sharedBuilt;    // written after shared, which it publishes to other threads
+
     public Parametric(String xExpr, String yExpr, double minRange, double maxRange) {
         super(minRange, maxRange);
        this.x = new SingleVariate(xExpr, minRange, maxRange);
@@ -12,10 +17,65 @@ public class Parametric extends Function {
     }
 
     @Override
-    public Point calc(double t) {
-        return new Point(this.x.calc(t).getY(), this.y.calc(t).getY());
+    void calcInto(double t, double[] xs, double[] ys, int index) {
+        Program shared = sharedProgram();
+        if (shared != null) {
+            try {
+                shared.evaluate(t, xs, ys, index);
+                return;
+            } catch (ExpressionException expressionException) {
+                // evaluate the halves separately so a valid half is still plotted
+            }
+        }
+        xs[index] = this.x.expression().valueAt(t);
+        ys[index] = this.y.expression().valueAt(t);
     }
     
+    @Override
+    void calc(double[] grid, double[] xs, double[] ys) {
+        Program shared = sharedProgram();
+        if (shared != null && grid.length > 0) {
+            try {
+                shared.evaluate(grid, xs, ys);
+                return;
+            } catch (ExpressionException expressionException) {
+                // evaluate the halves separately so a valid half is still plotted
+            }
+        }
+        this.x.evaluate(grid, xs);
+        this.y.evaluate(grid, ys);
+    }
+
+    /** Returns a program computing x(t) and y(t) together with their common subexpressions
+     * @return The shared Program, or null if hash-consing is off or nothing is shared
+     */
+    private Program sharedProgram() {
+        if (!this.sharedBuilt) {
+            synchronized (this) {
+                if (!this.sharedBuilt) {
+                    if (HashConser.isEnabled()) {
+                        HashConser conser = new HashConser();
+                        ASTNode xTree = conser.intern(this.x.expression().tree());
+                        ASTNode yTree = conser.intern(this.y.expression().tree());
+                        try {
+                            Program program = Program.compile(xTree, yTree);
+                            this.shared = program.registers() > 0 ? program : null;
+                        } catch (IllegalArgumentException e) {
+                            this.shared = null;    // an unknown function in a saved tree, the halves report it
+                        }
+                    }
+                    this.sharedBuilt = true;
+                }
+            }
+        }
+        return this.shared;
+    }
+
+    @Override
+    Object tileKey() {
+        return Arrays.asList(this.x.expression(), this.y.expression());
+    }
+
     @Override
     public String toString() {
     	return x.toString() + ";" + y.toString();
@@ -1,25 +1,78 @@
 package src;
 
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
- * Parser Implements a recursive descent lookahead parser for mathematical functions
+ * Parser Implements a lookahead parser for mathematical functions
  * <p>
  * Grammar:
  * <p>
  * The Grammar is LL(1)
  * It is specified by the Productions:
  * <p>
- * expr -> term (('+' | '-') factor)*
+ * expr -> term (('+' | '-') term)*
  * term -> factor (('*' | '/') factor)*
  * factor -> primary (('^') primary)*
  * primary -> NUM | VAR | FUNC | "(" expr ")"
+ * <p>
+ * A built-in FUNC takes the expr that follows it. A function from the
+ * FunctionRegistry takes its arguments in parentheses: FUNC "(" expr ("," expr)* ")"
+ * <p>
+ * The productions are parsed by precedence climbing with a cursor over the
+ * tokens and explicit operand and operator stacks instead of recursion, so
+ * nesting depth is limited only by the maximum depth of the syntax tree, read
+ * from the system property "calculator.parser.maxdepth".
+ * <p>
+ * Parenthesized groups can be recorded, and a parser given the groups of
+ * an earlier parse of nearly the same tokens copies the nodes of those that
+ * are unchanged instead of parsing them again, see IncrementalParser.
+ * <p>
+ * After an error the parser repairs the input as if a missing operand,
+ * operator or ")" had been there, or an extra one had not, and carries on,
+ * so one SyntaxException reports every error in the text.
  */
 class Parser {
 
+    private static final int DEFAULT_MAX_DEPTH = 100000;
+    private static volatile int maxDepth = Integer.getInteger("calculator.parser.maxdepth", DEFAULT_MAX_DEPTH);
+
+    // kinds of entries on the operator stack
+    private static final int BINARY = 0;
+    private static final int PREFIX = 1;    // a built-in function, applied to the expr after it
+    private static final int PAREN = 2;
+    private static final int CALL = 3;    // a registered function, closed by its ")"
+
+    // a recorded group is its first and last token, its first and last node and its height
+    static final int GROUP_SIZE = 5;
+
     List<Lexer.Token> tokens;
-    Lexer.Token lookahead;
+    private final FunctionRegistry registry;
+    private final List<SyntaxException> errors = new ArrayList<>();
+
+    private SyntaxTree tree;
+    private int[] operands = new int[16];    // indices of nodes in the tree
+    private int[] heights = new int[16];
+    private int operandCount = 0;
+
+    private int[] kinds = new int[16];
+    private Lexer.Token[] operatorTokens = new Lexer.Token[16];
+    private UserFunction[] operatorFunctions = new UserFunction[16];
+    private int[] positions = new int[16];
+    private int[] argumentCounts = new int[16];
+    private int[] tokenIndices = new int[16];
+    private int[] nodeMarks = new int[16];    // tree size when a parenthesis opened
+    private int[] errorMarks = new int[16];    // error count when a parenthesis opened
+    private int operatorCount = 0;
+
+    private int[] groups;    // null unless groups are recorded
+    private int groupCount = 0;
+    private SyntaxTree previous;
+    private int[] previousGroups;
+    private int[] reuseAt;    // the earlier group starting at each token, or -1
+    private int reusedNodes = 0;
 
     /**
      * Constructor for the parser
@@ -27,255 +80,413 @@ class Parser {
      * @param toks The tokens from a lexer
      */
     public Parser(List<Lexer.Token> toks) {
-        this.tokens = toks;
-        this.lookahead = this.tokens.remove(0);
+        this(toks, FunctionRegistry.getDefault());
     }
 
     /**
-     * Checks if the lookahead is equal to the given token type
+     * Constructor for a parser binding function names to the given registry
      *
-     * @param type The type of the token to check
-     * @return
+     * @param toks The tokens from a lexer
+     * @param registry The registry of functions besides the built-in ones
      */
-    private boolean lookaheadEqual(Lexer.TokenType type) {
-        return this.lookahead.tokenType == type;
+    public Parser(List<Lexer.Token> toks, FunctionRegistry registry) {
+        this.tokens = toks;
+        this.registry = registry;
     }
 
-    /**
-     * Parses the Token stream
-     *
-     * @return Returns a Syntax tree
+    /** Returns the deepest syntax tree the parser builds
+     * @return The maximum depth
      */
-    public ASTNode parseTokens() {
-        return expr();
+    static int getMaxDepth() {
+        return maxDepth;
     }
 
-    /**
-     * Checks if this is the first iteration in the precedence loop
-     *
-     * @param node The node to check
-     * @return True if it is the First iteration
+    /** Sets the deepest syntax tree the parser builds
+     * @param depth The maximum depth, counted in nodes from the root to a leaf
      */
-    private static boolean isFirstIteration(ASTNode node) {
-        return node != null;
+    static void setMaxDepth(int depth) {
+        maxDepth = depth;
     }
 
-    /**
-     * Adds a new Node representing a Add or Subtract node to the tree
-     *
-     * @param node The to set to the left
-     * @param type The token Type
-     * @return A new Add/Sub Node
+    /** Records the parenthesized groups parsed without errors, see groups()
      */
-    private ASTNode newAddSubNode(ASTNode node, Lexer.TokenType type) {
-        ASTNode opNode = new ASTNode(this.lookahead);
-        match(type);
-        opNode.setLeft(node);
-        opNode.setRight(term());
-        return opNode;
+    void recordGroups() {
+        if (this.groups == null) {
+            this.groups = new int[4 * GROUP_SIZE];
+        }
     }
 
-    /**
-     * Adds a new Node representing a Mult or Div node to the tree
-     *
-     * @param node The to set to the left
-     * @param type The token Type
-     * @return A new Mult/Div Node
+    /** Lets the parser copy the groups of an earlier parse that an edit left unchanged
+     * <p>
+     * The earlier tokens before keptTokens are the first tokens now, and those from
+     * resumedFrom on are the last tokens now, shifted by tokenShift.
+     * @param tree The tree of the earlier parse, finished or not
+     * @param groups The groups recorded by the earlier parse
+     * @param count The number of groups
+     * @param keptTokens The number of leading tokens the edit left unchanged
+     * @param resumedFrom The index of the first earlier token after the edit
+     * @param tokenShift The change in the index of the tokens after the edit
      */
-    private ASTNode newMultDiveNode(ASTNode node, Lexer.TokenType type) {
-        ASTNode opNode = new ASTNode(this.lookahead);
-        match(type);
-        opNode.setLeft(node);
-        opNode.setRight(factor());
-        return opNode;
+    void reuse(SyntaxTree tree, int[] groups, int count, int keptTokens, int resumedFrom, int tokenShift) {
+        this.previous = tree;
+        this.previousGroups = groups;
+        this.reuseAt = new int[this.tokens.size()];
+        Arrays.fill(this.reuseAt, -1);
+        for (int g = 0; g < count; g++) {
+            int first = groups[g * GROUP_SIZE];
+            int last = groups[g * GROUP_SIZE + 1];
+            if (last < keptTokens) {
+                this.reuseAt[first] = g;
+            } else if (first >= resumedFrom) {
+                this.reuseAt[first + tokenShift] = g;
+            }
+        }
     }
 
-    /**
-     * Adds a new Node representing a Exp node to the tree
-     *
-     * @param node The to set to the left
-     * @param type The token Type
-     * @return A new Exp Node
+    /** Returns the groups recorded by the last parse, even one that failed
+     * @return GROUP_SIZE ints per group, inner groups before the groups around them
      */
-    private ASTNode newExpNode(ASTNode node, Lexer.TokenType type) {
-        ASTNode opNode = new ASTNode(this.lookahead);
-        match(type);
-        opNode.setLeft(node);
-        opNode.setRight(primary());
-        return opNode;
+    int[] groups() {
+        return this.groups;
     }
 
-    /** Checks if A token Type is a plus or a minus
-     * @param type The type of the token
-     * @return True if It is a plus or a numus
-     */
-    private static boolean isPlusOrMinus(Lexer.TokenType type) {
-        return type == Lexer.TokenType.PLUS || type == Lexer.TokenType.MINUS;
+    int groupCount() {
+        return this.groupCount;
     }
 
-    /** Checks if a token type is a mult or a div
-     * @param type The type of the Token
-     * @return True if it is a mult or div
+    /** Returns the tree of the last parse, unfinished if it failed
+     * @return The tree
      */
-    private static boolean isMultOrDiv(Lexer.TokenType type) {
-        return type == Lexer.TokenType.MUL || type == Lexer.TokenType.DIV;
+    SyntaxTree tree() {
+        return this.tree;
     }
 
-    /** Checks if a Token type is an EXP
-     * @param type The token type to check
-     * @return True if the Token Type is an exponent
+    /** Returns how many nodes the last parse copied from the earlier tree
+     * @return The number of copied nodes
      */
-    private boolean isExp(Lexer.TokenType type) {
-        return type == Lexer.TokenType.EXP;
+    int reusedNodes() {
+        return this.reusedNodes;
     }
 
-    private ASTNode newOpNode(ASTNode node, Lexer.TokenType type) {
-        if (isPlusOrMinus(type)) {
-            return newAddSubNode(node, type);
-        } else if (isMultOrDiv(type)) {
-            return newMultDiveNode(node, type);
-        } else if (isExp(type)) {
-            return newExpNode(node, type);
-        } else {
-            System.err.printf("Token Type %s is not a valid op token", type.toString());
-            System.exit(1);
-        }
-        return null;
+    /**
+     * Parses the Token stream
+     *
+     * @return Returns a Syntax tree, a view of the tree parse() builds
+     * @throws SyntaxException for the first error in the tokens, listing all of them,
+     *         or at once if the tree is too deep
+     */
+    public ASTNode parseTokens() {
+        return parse().root();
     }
 
-
-    /** Returns a new operation node
-     * @param left The left node
-     * @param node The current node
-     * @param op The kind of operation
-     * @return A new Node
+    /**
+     * Parses the Token stream into the array form of a syntax tree
+     *
+     * @return The syntax tree
+     * @throws SyntaxException for the first error in the tokens, listing all of them,
+     *         or at once if the tree is too deep
      */
-    private ASTNode opNode(ASTNode left, ASTNode node, Lexer.TokenType op) {
-        if (isFirstIteration(node)) {
-            return newOpNode(node, op);
-        } else {
-            return newOpNode(left, op);
+    SyntaxTree parse() {
+        this.tree = new SyntaxTree(this.tokens.size());
+        int pos = 0;
+        boolean expectOperand = true;
+        while (true) {
+            Lexer.Token tok = pos < this.tokens.size() ? this.tokens.get(pos) : null;
+            if (expectOperand) {
+                expectOperand = false;
+                if (tok == null) {
+                    error("UNEXPECTED END OF EXPRESSION", endPosition());
+                    pushOperand(this.tree.number(Double.NaN), 1);
+                    continue;
+                }
+                switch (tok.tokenType) {
+                    case NUM:
+                        pushOperand(this.tree.number(tok.value), 1);
+                        pos++;
+                        break;
+                    case VAR:
+                        pushOperand(this.tree.variable(tok.tokenVal), 1);
+                        pos++;
+                        break;
+                    case LPAREN:
+                        if (this.reuseAt != null && this.reuseAt[pos] >= 0) {
+                            pos = copyGroup(this.reuseAt[pos], pos);
+                            break;
+                        }
+                        pushOperator(PAREN, tok, null);
+                        this.tokenIndices[this.operatorCount - 1] = pos;
+                        pos++;
+                        expectOperand = true;
+                        break;
+                    case FUNC:
+                        pos = function(tok, pos + 1);
+                        expectOperand = true;
+                        break;
+                    default:
+                        // the token is read again as the operator after the missing operand
+                        error("MISSING OPERAND BEFORE " + tok.tokenVal, tok.offset);
+                        pushOperand(this.tree.number(Double.NaN), 1);
+                        break;
+                }
+            } else if (tok == null) {
+                break;
+            } else if (precedence(tok.tokenType) > 0) {
+                reduceOperators(precedence(tok.tokenType));
+                pushOperator(BINARY, tok, null);
+                pos++;
+                expectOperand = true;
+            } else if (tok.tokenType == Lexer.TokenType.RPAREN) {
+                reduceOperators(0);
+                if (this.operatorCount == 0) {
+                    error("UNEXPECTED )", tok.offset);
+                } else {
+                    closeGroup(pos);
+                }
+                pos++;
+            } else if (tok.tokenType == Lexer.TokenType.COMMA) {
+                reduceOperators(0);
+                nextArgument(tok);
+                pos++;
+                expectOperand = true;
+            } else {
+                // an operand right after an operand
+                error("MISSING OPERATOR BEFORE " + tok.tokenVal, tok.offset);
+                reduceOperators(precedence(Lexer.TokenType.MUL));
+                pushOperator(BINARY, Lexer.newToken(Lexer.TokenType.MUL, "*"), null);
+                this.positions[this.operatorCount - 1] = tok.offset;
+                expectOperand = true;
+            }
         }
+        reduceOperators(0);
+        while (this.operatorCount > 0) {
+            error("MISSING )", this.positions[this.operatorCount - 1]);
+            closeGroup(-1);
+            reduceOperators(0);
+        }
+        if (!this.errors.isEmpty()) {
+            SyntaxException first = this.errors.get(0);
+            first.setErrors(this.errors);
+            throw first;
+        }
+        this.tree.setRoot(this.operands[0]);
+        return this.tree;
     }
 
-    /** Iterates over Operators of the same precedence
-     * @param left The left node
-     * @param firstOp The First operator
-     * @param secondOp The second operator
-     * @return A new syntax node
+    /** Pushes the operator for a FUNC token
+     * @param tok The FUNC token
+     * @param pos The position after the token
+     * @return The position after the function name and any opening parenthesis
      */
-    private ASTNode iterateOperators(ASTNode left, Lexer.TokenType firstOp, Lexer.TokenType secondOp) {
-        ASTNode node = null;
-
-        while (true) {
-            if (lookaheadEqual(firstOp)) {
-                node = opNode(left, node, firstOp);
-                continue;
-            } else if (lookaheadEqual(secondOp)) {
-                node = opNode(left, node, secondOp);
-                continue;
+    private int function(Lexer.Token tok, int pos) {
+        if (BuiltinFunction.forName(tok.tokenVal) != null) {
+            pushOperator(PREFIX, tok, null);
+            return pos;
+        }
+        UserFunction function = this.registry.lookup(tok.tokenVal);
+        if (function == null) {
+            error("UNKNOWN FUNCTION: " + tok.tokenVal, tok.offset);
+        }
+        if (pos >= this.tokens.size() || this.tokens.get(pos).tokenType != Lexer.TokenType.LPAREN) {
+            if (function != null) {
+                error(arityMessage(function), tok.offset);
             }
-            break;
+            pushOperator(PREFIX, tok, function);    // read on as if it took the expr after it
+            return pos;
         }
-
-        return node;
+        pushOperator(CALL, tok, function);
+        return pos + 1;
     }
 
-    /** Production for expr
-     * @return An expression tree
+    /** Returns the binding strength of a binary operator
+     * @param type The token type
+     * @return 1 for + and -, 2 for * and /, 3 for ^, 0 if the token is not a binary operator
      */
-    private ASTNode expr() {
-        ASTNode left = term();
-
-        ASTNode node = this.iterateOperators(left, Lexer.TokenType.PLUS, Lexer.TokenType.MINUS);
-
-        if (node == null) {
-            return left;
+    private static int precedence(Lexer.TokenType type) {
+        switch (type) {
+            case PLUS:
+            case MINUS:
+                return 1;
+            case MUL:
+            case DIV:
+                return 2;
+            case EXP:
+                return 3;
+            default:
+                return 0;
         }
-
-        return node;
     }
 
-    /** Production for a term
-     * @return A term syntax tree
+    /** Applies pending operators down to the innermost parenthesis or registered call
+     * <p>
+     * Binary operators bind left to right, so an operator is applied when the
+     * next one binds no tighter. A built-in function is applied only at the end
+     * of its expr.
+     * @param minimum The precedence of the next operator, or 0 at the end of an expr
      */
-    private ASTNode term() {
-        ASTNode factor = factor();
-
-        ASTNode node = this.iterateOperators(factor, Lexer.TokenType.MUL, Lexer.TokenType.DIV);
-
-        if (node == null) {
-            return factor;
+    private void reduceOperators(int minimum) {
+        while (this.operatorCount > 0) {
+            int top = this.operatorCount - 1;
+            int kind = this.kinds[top];
+            if (kind == BINARY && precedence(this.operatorTokens[top].tokenType) >= minimum) {
+                int height = Math.max(this.heights[this.operandCount - 2], this.heights[this.operandCount - 1]);
+                int right = this.operands[--this.operandCount];
+                int left = this.operands[--this.operandCount];
+                this.operatorCount--;
+                pushOperand(this.tree.operator(this.operatorTokens[top].tokenType, left, right), height + 1);
+            } else if (kind == PREFIX && minimum == 0) {
+                int height = this.heights[this.operandCount - 1];
+                int argument = this.operands[--this.operandCount];
+                this.operatorCount--;
+                pushOperand(this.tree.function(this.operatorTokens[top].tokenVal, this.operatorFunctions[top],
+                        argument, -1), height + 1);
+            } else {
+                return;
+            }
         }
-
-        return node;
     }
 
-    /** Production for a factor
-     * @return A factor Syntax tree
+    /** Closes the parenthesis or registered call on top of the operator stack at a ")"
+     * @param pos The index of the ")" token, or -1 if it is missing
      */
-    private ASTNode factor() {
-        ASTNode primary = primary();
-
-        ASTNode node = null;
-
-        while (true) {
-            if (lookaheadEqual(Lexer.TokenType.EXP)) {
-                node = opNode(primary, node, Lexer.TokenType.EXP);
-                continue;
+    private void closeGroup(int pos) {
+        int top = --this.operatorCount;
+        if (this.kinds[top] == PAREN) {
+            if (this.groups != null && pos >= 0 && this.errors.size() == this.errorMarks[top]) {
+                recordGroup(this.tokenIndices[top], pos, this.nodeMarks[top], this.operands[this.operandCount - 1],
+                        this.heights[this.operandCount - 1]);
+            }
+            return;
+        }
+        UserFunction function = this.operatorFunctions[top];
+        int arguments = this.argumentCounts[top] + 1;
+        if (function != null && arguments < function.arity()) {
+            error(arityMessage(function), this.positions[top]);
+        }
+        // an unknown function or one given too many arguments keeps its first two
+        int height = 0;
+        int first = -1;
+        int second = -1;
+        for (int i = arguments - 1; i >= 0; i--) {
+            height = Math.max(height, this.heights[--this.operandCount]);
+            if (i == 0) {
+                first = this.operands[this.operandCount];
+            } else if (i == 1) {
+                second = this.operands[this.operandCount];
             }
-            break;
         }
+        pushOperand(this.tree.function(this.operatorTokens[top].tokenVal, function, first, second), height + 1);
+    }
 
-        if (node == null) {
-            return primary;
+    /** Copies an unchanged group of the earlier parse, with the groups inside it
+     * @param g The index of the earlier group
+     * @param pos The index of its "(" token now
+     * @return The index of the token after its ")"
+     */
+    private int copyGroup(int g, int pos) {
+        int[] old = this.previousGroups;
+        int base = g * GROUP_SIZE;
+        int first = old[base + 2];
+        int last = old[base + 3];
+        int shift = this.tree.size() - first;
+        int root = this.tree.copy(this.previous, first, last);
+        this.reusedNodes += last - first + 1;
+        if (this.groups != null) {
+            int inner = g;
+            while (inner > 0 && old[(inner - 1) * GROUP_SIZE + 2] >= first) {
+                inner--;
+            }
+            for (int k = inner * GROUP_SIZE; k <= base; k += GROUP_SIZE) {
+                recordGroup(old[k] - old[base] + pos, old[k + 1] - old[base] + pos, old[k + 2] + shift,
+                        old[k + 3] + shift, old[k + 4]);
+            }
         }
+        pushOperand(root, old[base + 4]);
+        return pos + old[base + 1] - old[base] + 1;
+    }
 
-        return node;
+    private void recordGroup(int firstToken, int lastToken, int firstNode, int lastNode, int height) {
+        if ((this.groupCount + 1) * GROUP_SIZE > this.groups.length) {
+            this.groups = Arrays.copyOf(this.groups, this.groups.length * 2);
+        }
+        int base = this.groupCount++ * GROUP_SIZE;
+        this.groups[base] = firstToken;
+        this.groups[base + 1] = lastToken;
+        this.groups[base + 2] = firstNode;
+        this.groups[base + 3] = lastNode;
+        this.groups[base + 4] = height;
     }
 
-    /** production for primary
-     * @return A primary syntax tree
+    /** Moves to the next argument of the registered call on top of the operator stack at a ","
+     * <p>
+     * A comma anywhere else is reported and read on as an operator that binds
+     * loosest of all.
+     * @param tok The COMMA token
      */
-    private ASTNode primary() {
-        ASTNode node = null;
-
-        if (lookaheadEqual(Lexer.TokenType.NUM)) {
-            node = new ASTNode(this.lookahead);
-            match(Lexer.TokenType.NUM);
-        } else if (lookaheadEqual(Lexer.TokenType.VAR)) {
-            node = new ASTNode(this.lookahead);
-            match(Lexer.TokenType.VAR);
-        } else if (lookaheadEqual(Lexer.TokenType.FUNC)) {
-            node = new ASTNode(this.lookahead);
-            match(Lexer.TokenType.FUNC);
-            node.setLeft(expr());
-        } else {
-            match(Lexer.TokenType.LPAREN);
-            node = expr();
-            match(Lexer.TokenType.RPAREN);
+    private void nextArgument(Lexer.Token tok) {
+        int top = this.operatorCount - 1;
+        if (top < 0 || this.kinds[top] != CALL) {
+            error("UNEXPECTED ,", tok.offset);
+            pushOperator(BINARY, tok, null);
+            return;
+        }
+        UserFunction function = this.operatorFunctions[top];
+        if (++this.argumentCounts[top] == (function == null ? -1 : function.arity())) {
+            error(arityMessage(function), tok.offset);
         }
+    }
 
-        return node;
+    private static String arityMessage(UserFunction function) {
+        return function.name() + " TAKES " + function.arity() + " ARGUMENT(S)";
     }
 
-    /**
-     * Updates the lookahead value
+    /** Records an error and carries on parsing
+     * @param message The description of the error
+     * @param position The index of the char in the text where it was found
      */
-    private void updateLookahead() {
-        if (!tokens.isEmpty())
-            lookahead = tokens.remove(0);
+    private void error(String message, int position) {
+        this.errors.add(new SyntaxException(message, position));
     }
 
-    /** Matchs the token type and update its value
-     * @param type The token type to match
+    /** Returns the position just after the last token
+     * @return The index of the char after the last token, or 0 if there are no tokens
      */
-    private void match(Lexer.TokenType type) {
-        if (lookaheadEqual(type)) {
-            updateLookahead();
-        } else {
-            System.err.printf("TokenType %s does not match expected TokenType %s\n", lookahead.tokenType.toString(), type.toString());
-            System.exit(1);
+    private int endPosition() {
+        if (this.tokens.isEmpty()) {
+            return 0;
+        }
+        Lexer.Token last = this.tokens.get(this.tokens.size() - 1);
+        return Math.max(last.offset, 0) + last.tokenVal.length();
+    }
+
+    private void pushOperand(int node, int height) {
+        if (height > maxDepth) {
+            throw new SyntaxException("EXPRESSION NESTED DEEPER THAN " + maxDepth);
+        }
+        if (this.operandCount == this.operands.length) {
+            this.operands = Arrays.copyOf(this.operands, this.operandCount * 2);
+            this.heights = Arrays.copyOf(this.heights, this.operandCount * 2);
+        }
+        this.operands[this.operandCount] = node;
+        this.heights[this.operandCount++] = height;
+    }
+
+    private void pushOperator(int kind, Lexer.Token token, UserFunction function) {
+        if (this.operatorCount == this.kinds.length) {
+            this.kinds = Arrays.copyOf(this.kinds, this.operatorCount * 2);
+            this.operatorTokens = Arrays.copyOf(this.operatorTokens, this.operatorCount * 2);
+            this.operatorFunctions = Arrays.copyOf(this.operatorFunctions, this.operatorCount * 2);
+            this.positions = Arrays.copyOf(this.positions, this.operatorCount * 2);
+            this.argumentCounts = Arrays.copyOf(this.argumentCounts, this.operatorCount * 2);
+            this.tokenIndices = Arrays.copyOf(this.tokenIndices, this.operatorCount * 2);
+            this.nodeMarks = Arrays.copyOf(this.nodeMarks, this.operatorCount * 2);
+            this.errorMarks = Arrays.copyOf(this.errorMarks, this.operatorCount * 2);
         }
+        this.kinds[this.operatorCount] = kind;
+        this.operatorTokens[this.operatorCount] = token;
+        this.operatorFunctions[this.operatorCount] = function;
+        this.positions[this.operatorCount] = token.offset;
+        this.nodeMarks[this.operatorCount] = this.tree.size();
+        this.errorMarks[this.operatorCount] = this.errors.size();
+        this.argumentCounts[this.operatorCount++] = 0;
     }
 }
@@ -0,0 +1,121 @@
+package src;
+
+/**
+ * PixelSampler samples a Function at the resolution of the canvas rather than
+ * at every step, so the work to draw a curve depends on the width in pixels,
+ * not on the numeric range.
+ * <p>
+ * At most a fixed number of samples per pixel column is evaluated, through
+ * the TileCache, with breaks at poles found as IntervalSampler finds them.
+ * Every run of consecutive samples within one column is then cut down to its
+ * first, lowest, highest and last sample (M4 aggregation), which draw the
+ * same pixels as the whole run.
+ */
+final class PixelSampler {
+
+    static final int PER_COLUMN = 4;
+
+    private PixelSampler() {
+    }
+
+    /** Checks if a step grid is finer than the pixels, so sampling per pixel loses nothing
+     * @param step The distance between grid values
+     * @param xScale Pixels per unit of x
+     * @return True if the grid has more than PER_COLUMN samples per pixel column
+     */
+    static boolean isFinerThanPixels(double step, double xScale) {
+        return step * xScale * PER_COLUMN < 1.0;
+    }
+
+    /** Samples a function over a range of inputs at the resolution of a canvas
+     * <p>
+     * The inputs are the lattice of the power of two spacing that gives at
+     * most PER_COLUMN samples per column of the range, so the samples come from
+     * the tile cache when the range is panned.
+     * @param funct The function to sample
+     * @param from The first input value
+     * @param to The last input value
+     * @param columns The width of the canvas in pixels
+     * @param xOrigin The x value at the left edge of the canvas
+     * @param xScale Pixels per unit of x
+     * @param tiles The cache of evaluated tiles
+     * @param out Filled with the decimated samples in input order, with a NaN y where the curve breaks
+     * @return The number of samples evaluated
+     */
+    static int sample(Function funct, double from, double to, int columns, double xOrigin, double xScale,
+                      TileCache tiles, SampleBuffer out) {
+        double spacing = Math.scalb(1.0, Math.getExponent((to - from) / (Math.max(columns, 1) * PER_COLUMN)) + 1);
+        int evaluated = tiles.sample(funct, from, to, spacing, out);
+        IntervalSampler.breakAtPoles(funct, out);
+        decimate(out, xOrigin, xScale);
+        return evaluated;
+    }
+
+    /** Keeps only the first, lowest, highest and last sample of each run of consecutive samples
+     * in one pixel column, in their order
+     * <p>
+     * Samples with a NaN coordinate end a run and are kept, so breaks in the curve are kept.
+     * @param samples The samples, decimated in place
+     * @param xOrigin The x value at the left edge of column 0
+     * @param xScale Pixels per unit of x
+     */
+    static void decimate(SampleBuffer samples, double xOrigin, double xScale) {
+        double[] xs = samples.xs();
+        double[] ys = samples.ys();
+        int n = samples.size();
+        int kept = 0;
+        int k = 0;
+        while (k < n) {
+            if (Double.isNaN(xs[k]) || Double.isNaN(ys[k])) {
+                xs[kept] = xs[k];
+                ys[kept++] = ys[k++];
+                continue;
+            }
+            double column = Math.floor((xs[k] - xOrigin) * xScale);
+            int first = k;
+            int min = k;
+            int max = k;
+            double firstX = xs[k];
+            double firstY = ys[k];
+            double minX = firstX;
+            double minY = firstY;
+            double maxX = firstX;
+            double maxY = firstY;
+            k++;
+            while (k < n && !Double.isNaN(ys[k]) && Math.floor((xs[k] - xOrigin) * xScale) == column) {
+                if (ys[k] < minY) {
+                    min = k;
+                    minX = xs[k];
+                    minY = ys[k];
+                }
+                if (ys[k] > maxY) {
+                    max = k;
+                    maxX = xs[k];
+                    maxY = ys[k];
+                }
+                k++;
+            }
+            int last = k - 1;
+            double lastX = xs[last];
+            double lastY = ys[last];
+            // the run is copied to its front, which is at or after kept, so nothing unread is overwritten
+            xs[kept] = firstX;
+            ys[kept++] = firstY;
+            int low = Math.min(min, max);
+            int high = Math.max(min, max);
+            if (low != first) {
+                xs[kept] = low == min ? minX : maxX;
+                ys[kept++] = low == min ? minY : maxY;
+            }
+            if (high != low && high != first) {
+                xs[kept] = high == min ? minX : maxX;
+                ys[kept++] = high == min ? minY : maxY;
+            }
+            if (last != high && last != first) {
+                xs[kept] = lastX;
+                ys[kept++] = lastY;
+            }
+        }
+        samples.setSize(kept);
+    }
+}
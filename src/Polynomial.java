@@ -0,0 +1,261 @@
+package src;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Polynomial is the coefficient form of an expression that expands to a
+ * polynomial in the variable, evaluated with Horner's rule.
+ * <p>
+ * Expansion is only accepted when it stays well conditioned: the largest
+ * expanded coefficient may not exceed the largest constant of the source by
+ * more than MAX_GROWTH, which bounds how much the expanded form can amplify
+ * rounding error compared to evaluating the tree. (x - 1000)^8, for example,
+ * stays on the normal evaluator.
+ */
+final class Polynomial {
+
+    static final int MAX_DEGREE = 16;
+    private static final double MAX_GROWTH = 1024.0;
+    private static final int FORWARD_DEGREE = 3;    // highest degree evaluated by forward differencing
+    private static final int RESEED = 16;    // samples between exact restarts of forward differencing
+
+    private final double[] coefficients;    // coefficients[i] multiplies x^i
+
+    private Polynomial(double[] coefficients) {
+        this.coefficients = coefficients;
+    }
+
+    /** Recognizes a syntax tree that expands to a polynomial of bounded degree
+     * @param root The root of the syntax tree
+     * @return The polynomial, or null if the tree is not a well conditioned polynomial
+     */
+    static Polynomial fromTree(ASTNode root) {
+        double[] coefficients = expand(root);
+        if (coefficients == null) {
+            return null;
+        }
+        double largest = 0.0;
+        for (double c : coefficients) {
+            largest = Math.max(largest, Math.abs(c));
+        }
+        if (!Double.isFinite(largest) || largest > MAX_GROWTH * Math.max(1.0, largestConstant(root))) {
+            return null;
+        }
+        return new Polynomial(trim(coefficients));
+    }
+
+    /** Returns the degree of the polynomial
+     * @return The degree
+     */
+    int degree() {
+        return this.coefficients.length - 1;
+    }
+
+    /** Returns a coefficient of the polynomial
+     * @param power The power of x the coefficient multiplies
+     * @return The coefficient
+     */
+    double coefficient(int power) {
+        return power < this.coefficients.length ? this.coefficients[power] : 0.0;
+    }
+
+    /** Evaluates the polynomial with Horner's rule
+     * @param x The value of the variable
+     * @return The value of the polynomial
+     */
+    double evaluate(double x) {
+        final double[] c = this.coefficients;
+        double result = c[c.length - 1];
+        for (int i = c.length - 2; i >= 0; i--) {
+            result = result * x + c[i];
+        }
+        return result;
+    }
+
+    /** Evaluates the polynomial at every value of a grid
+     * @param xs The values of the variable
+     * @param out The array to fill with the results
+     */
+    void evaluate(double[] xs, double[] out) {
+        for (int i = 0; i < xs.length; i++) {
+            out[i] = evaluate(xs[i]);
+        }
+    }
+
+    /** Evaluates the polynomial on the evenly stepped grid start + k * step
+     * <p>
+     * Up to degree FORWARD_DEGREE this uses forward differencing, so each
+     * sample costs one addition per degree, and the difference table is rebuilt
+     * exactly every RESEED samples, so rounding error cannot build up over long
+     * grids. Higher differences cancel too badly to be accurate (x^16 + 1 is off
+     * by thousands within a few steps), so higher degrees use Horner's rule.
+     * @param start The first value of the variable
+     * @param step The distance between values
+     * @param out The array to fill, one result per grid point
+     */
+    void evaluateGrid(double start, double step, double[] out) {
+        final int degree = degree();
+        if (degree > FORWARD_DEGREE) {
+            for (int k = 0; k < out.length; k++) {
+                out[k] = evaluate(start + k * step);
+            }
+            return;
+        }
+        final double[] diffs = new double[degree + 1];
+        for (int from = 0; from < out.length; from += RESEED) {
+            int len = Math.min(RESEED, out.length - from);
+            seedDifferences(start, step, from, diffs);
+            for (int k = from; k < from + len; k++) {
+                out[k] = diffs[0];
+                for (int j = 0; j < degree; j++) {
+                    diffs[j] += diffs[j + 1];
+                }
+            }
+        }
+    }
+
+    /** Builds the forward difference table at grid index k
+     * @param start The first value of the variable
+     * @param step The distance between values
+     * @param k The grid index to start from
+     * @param diffs Filled with the differences of order 0 to degree
+     */
+    private void seedDifferences(double start, double step, int k, double[] diffs) {
+        for (int j = 0; j < diffs.length; j++) {
+            diffs[j] = evaluate(start + (k + j) * step);
+        }
+        for (int order = 1; order < diffs.length; order++) {
+            for (int j = diffs.length - 1; j >= order; j--) {
+                diffs[j] -= diffs[j - 1];
+            }
+        }
+    }
+
+    /** Expands a syntax tree into coefficients
+     * @param root The root of the tree
+     * @return The coefficients, or null if the tree is not a polynomial
+     */
+    private static double[] expand(ASTNode root) {
+        Map<ASTNode, double[]> expanded = new IdentityHashMap<>();    // null for nodes that are not polynomials
+        for (ASTNode node : ASTNode.postOrder(root)) {
+            expanded.put(node, expandNode(node, expanded));
+        }
+        return expanded.get(root);
+    }
+
+    /** Expands one node whose children are already expanded
+     * @param node The node to expand
+     * @param expanded The coefficients of every node below it
+     * @return The coefficients, or null if the node is not a polynomial
+     */
+    private static double[] expandNode(ASTNode node, Map<ASTNode, double[]> expanded) {
+        double[] left = node.getLeft() == null ? null : expanded.get(node.getLeft());
+        double[] right = node.getRight() == null ? null : expanded.get(node.getRight());
+        switch (node.getTokenType()) {
+            case NUM:
+                return new double[] { node.getNumber() };
+            case VAR:
+                return new double[] { 0.0, 1.0 };
+            case PLUS:
+            case MINUS:
+                if (left == null || right == null) {
+                    return null;
+                }
+                double sign = node.getTokenType() == Lexer.TokenType.PLUS ? 1.0 : -1.0;
+                double[] sum = Arrays.copyOf(left, Math.max(left.length, right.length));
+                for (int i = 0; i < right.length; i++) {
+                    sum[i] += sign * right[i];
+                }
+                return sum;
+            case MUL:
+                return left == null || right == null ? null : multiply(left, right);
+            case DIV:
+                if (left == null || right == null || trim(right).length != 1) {
+                    return null;
+                }
+                double[] quotient = new double[left.length];
+                for (int i = 0; i < left.length; i++) {
+                    quotient[i] = left[i] / right[0];
+                }
+                return quotient;
+            case EXP:
+                return expandPower(node, left);
+            default:
+                return null;
+        }
+    }
+
+    /** Expands a power with a small non-negative integer exponent
+     * @param node The EXP node
+     * @param base The coefficients of the base, or null if it is not a polynomial
+     * @return The coefficients, or null if the power is not a polynomial
+     */
+    private static double[] expandPower(ASTNode node, double[] base) {
+        ASTNode exponent = node.getRight();
+        if (base == null || exponent.getTokenType() != Lexer.TokenType.NUM) {
+            return null;
+        }
+        double n = exponent.getNumber();
+        if (n < 0 || n > MAX_DEGREE || n != Math.rint(n)) {
+            return null;
+        }
+        double[] result = { 1.0 };
+        for (int i = 0; i < (int) n && result != null; i++) {
+            result = multiply(result, base);
+        }
+        return result;
+    }
+
+    private static double[] multiply(double[] a, double[] b) {
+        a = trim(a);
+        b = trim(b);
+        if (a.length + b.length - 2 > MAX_DEGREE) {
+            return null;
+        }
+        double[] product = new double[a.length + b.length - 1];
+        for (int i = 0; i < a.length; i++) {
+            for (int j = 0; j < b.length; j++) {
+                product[i + j] += a[i] * b[j];
+            }
+        }
+        return product;
+    }
+
+    /** Drops zero coefficients of the highest powers
+     * @param c The coefficients
+     * @return The coefficients without trailing zeros, at least one long
+     */
+    private static double[] trim(double[] c) {
+        int length = c.length;
+        while (length > 1 && c[length - 1] == 0.0) {
+            length--;
+        }
+        return length == c.length ? c : Arrays.copyOf(c, length);
+    }
+
+    /** Returns the largest magnitude of any constant in a tree
+     * @param root The root of the tree
+     * @return The largest constant magnitude
+     */
+    private static double largestConstant(ASTNode root) {
+        Map<ASTNode, Double> largest = new IdentityHashMap<>();
+        for (ASTNode node : ASTNode.postOrder(root)) {
+            double value = 0.0;
+            if (node.getTokenType() == Lexer.TokenType.NUM) {
+                value = Math.abs(node.getNumber());
+            } else {
+                if (node.getLeft() != null) {
+                    value = largest.get(node.getLeft());
+                }
+                // exponents are degrees, not coefficients
+                if (node.getRight() != null && node.getTokenType() != Lexer.TokenType.EXP) {
+                    value = Math.max(value, largest.get(node.getRight()));
+                }
+            }
+            largest.put(node, value);
+        }
+        return largest.get(root);
+    }
+}
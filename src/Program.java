@@ -0,0 +1,1017 @@
+package src;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Program is the compiled form of an Expression: a flat postfix instruction
+ * sequence with a constant pool, evaluated by a small stack machine.
+ * <p>
+ * Each instruction is packed into one int, the opcode in the low byte and an
+ * optional operand (constant index, register, exponent or function index) in
+ * the remaining bits. Registered functions are called through a table bound at
+ * compile time.
+ */
+final class Program {
+
+    static final int CONST = 0;
+    static final int VAR = 1;
+    static final int ADD = 2;
+    static final int SUB = 3;
+    static final int MUL = 4;
+    static final int DIV = 5;
+    static final int POW = 6;
+    static final int EXP = 7;
+    static final int SIN = 8;
+    static final int COS = 9;
+    static final int TAN = 10;
+    static final int ASIN = 11;
+    static final int ACOS = 12;
+    static final int ATAN = 13;
+    static final int LN = 14;
+    static final int LOG = 15;
+    static final int SQUARE = 16;
+    static final int SQRT = 17;
+    static final int POWI = 18;
+    static final int STORE = 19;
+    static final int LOAD = 20;
+    static final int CALL1 = 21;
+    static final int CALL2 = 22;
+
+    private static final int BLOCK = 256;    // samples per column in batch evaluation
+    private static final int MAX_CHAIN_EXPONENT = 64;
+    private static final double LN_10 = Math.log(10.0);
+    private static final double DIFFERENCE_STEP = 1e-5;    // relative step for functions without a derivative
+    private static volatile boolean fastPow = Boolean.getBoolean("calculator.fastpow");
+
+    private final int[] code;
+    private final double[] constants;
+    private final UserFunction[] functions;
+    private final int maxStack;
+    private final int registers;    // slots holding shared subexpressions
+    private final int results;
+    private final boolean usesVariable;
+    // the operand stack followed by the registers, one per thread so scalar evaluation does not allocate
+    private final ThreadLocal<double[]> frames;
+    // the same for evaluateDual, with a derivative beside every stack slot and register
+    private final ThreadLocal<double[]> duals;
+
+    private Program(int[] code, double[] constants, UserFunction[] functions, int maxStack, int registers,
+                    int results, boolean usesVariable) {
+        this.code = code;
+        this.constants = constants;
+        this.functions = functions;
+        this.maxStack = maxStack;
+        this.registers = registers;
+        this.results = results;
+        this.usesVariable = usesVariable;
+        this.frames = ThreadLocal.withInitial(() -> new double[maxStack + registers]);
+        this.duals = ThreadLocal.withInitial(() -> new double[2 * (maxStack + registers)]);
+    }
+
+    /** Compiles syntax trees into a Program leaving one result per tree
+     * <p>
+     * Nodes reachable more than once, as in a hash-consed DAG, are computed once
+     * per evaluation: the first occurrence stores its value in a register and
+     * later occurrences load it.
+     * @param roots The roots of the syntax trees
+     * @return The compiled Program
+     */
+    static Program compile(ASTNode... roots) {
+        Builder builder = new Builder();
+        for (ASTNode root : roots) {
+            builder.countUses(root);
+        }
+        for (ASTNode root : roots) {
+            builder.emitNode(root);
+        }
+        return builder.build(roots.length);
+    }
+
+    /** Enables multiply chains for every small integer exponent
+     * <p>
+     * Only x^2 and x^0.5 can be rewritten bit-for-bit, Math.pow is not correctly
+     * rounded and differs from any multiply chain by an ulp on some inputs. With
+     * this set, x^n for |n| up to 64 uses exponentiation by squaring and a
+     * reciprocal for negative n. It affects programs compiled afterwards.
+     * @param enabled True to allow results an ulp or two away from Math.pow
+     */
+    static void setFastPow(boolean enabled) {
+        fastPow = enabled;
+    }
+
+    /** Returns whether multiply chains are used for every small integer exponent
+     * @return True if fast powers are enabled
+     */
+    static boolean isFastPow() {
+        return fastPow;
+    }
+
+    /** Computes x^0.5 exactly as Math.pow does, using a square root
+     * @param x The base
+     * @return The square root of x, with pow's results for -0 and -Infinity
+     */
+    static double sqrtPow(double x) {
+        if (x == Double.NEGATIVE_INFINITY) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return Math.sqrt(x) + 0.0;    // turns -0 into +0
+    }
+
+    /** Computes x^n by exponentiation by squaring
+     * @param x The base
+     * @param n The integer exponent
+     * @return x to the power n
+     */
+    static double powi(double x, int n) {
+        int e = Math.abs(n);
+        double result = 1.0;
+        double base = x;
+        while (e != 0) {
+            if ((e & 1) != 0) {
+                result *= base;
+            }
+            e >>>= 1;
+            if (e != 0) {
+                base *= base;
+            }
+        }
+        return n < 0 ? 1.0 / result : result;
+    }
+
+    /** Returns the opcode of a packed instruction
+     * @param insn The instruction
+     * @return The opcode
+     */
+    static int opcode(int insn) {
+        return insn & 0xFF;
+    }
+
+    /** Returns the operand of a packed instruction
+     * @param insn The instruction
+     * @return The operand
+     */
+    static int operand(int insn) {
+        return insn >>> 8;
+    }
+
+    /** Returns the operand of a packed instruction as a signed value
+     * @param insn The instruction
+     * @return The signed operand
+     */
+    static int signedOperand(int insn) {
+        return insn >> 8;
+    }
+
+    /** Returns the instructions of the program, which must not be modified
+     * @return The packed instructions
+     */
+    int[] code() {
+        return this.code;
+    }
+
+    /** Returns a value from the constant pool
+     * @param index The pool index
+     * @return The constant
+     */
+    double constant(int index) {
+        return this.constants[index];
+    }
+
+    /** Returns a registered function called by the program
+     * @param index The operand of a CALL1 or CALL2 instruction
+     * @return The function
+     */
+    UserFunction function(int index) {
+        return this.functions[index];
+    }
+
+    /** Returns the number of registered functions the program calls
+     * @return The size of the function table
+     */
+    int functionCount() {
+        return this.functions.length;
+    }
+
+    /** Applies a registered function of one argument, for compiled code
+     * @param a The argument
+     * @param function The function
+     * @return The value of the function
+     */
+    static double call1(double a, UserFunction function) {
+        return function.apply(a);
+    }
+
+    /** Applies a registered function of two arguments, for compiled code
+     * @param a The first argument
+     * @param b The second argument
+     * @param function The function
+     * @return The value of the function
+     */
+    static double call2(double a, double b, UserFunction function) {
+        return function.apply(a, b);
+    }
+
+    /** Returns the number of registers for shared subexpressions
+     * @return The register count
+     */
+    int registers() {
+        return this.registers;
+    }
+
+    /** Returns the number of values the program produces
+     * @return One per compiled tree
+     */
+    int results() {
+        return this.results;
+    }
+
+    /** Returns the deepest operand stack the program needs
+     * @return The maximum stack depth
+     */
+    int maxStack() {
+        return this.maxStack;
+    }
+
+    /** Checks whether the program reads the variable
+     * @return True if the program contains a VAR instruction
+     */
+    boolean usesVariable() {
+        return this.usesVariable;
+    }
+
+    /** Runs the program with the given variable value
+     * @param x The value of the variable
+     * @return The result of the evaluation
+     * @throws ExpressionException
+     */
+    double evaluate(double x) throws ExpressionException {
+        final double[] frame = this.frames.get();
+        execute(x, frame);
+        return frame[0];
+    }
+
+    /** Runs the program with the given variable value, for every compiled tree
+     * @param x The value of the variable
+     * @param out The array to fill with one result per tree
+     * @throws ExpressionException
+     */
+    void evaluate(double x, double[] out) throws ExpressionException {
+        final double[] frame = this.frames.get();
+        execute(x, frame);
+        System.arraycopy(frame, 0, out, 0, this.results);
+    }
+
+    /** Runs a program of two trees, such as the halves of a Parametric, storing the results at one index
+     * @param x The value of the variable
+     * @param first The array to store the result of the first tree in
+     * @param second The array to store the result of the second tree in
+     * @param index The index to store the results at
+     * @throws ExpressionException
+     */
+    void evaluate(double x, double[] first, double[] second, int index) throws ExpressionException {
+        final double[] frame = this.frames.get();
+        execute(x, frame);
+        first[index] = frame[0];
+        second[index] = frame[1];
+    }
+
+    /** Runs the instructions, leaving the results at the bottom of the stack
+     * @param x The value of the variable
+     * @param stack The operand stack of maxStack slots followed by the registers
+     * @throws ExpressionException
+     */
+    private void execute(double x, double[] stack) throws ExpressionException {
+        final int[] code = this.code;
+        final double[] constants = this.constants;
+        final int regs = this.maxStack;
+        int sp = -1;
+        for (int pc = 0; pc < code.length; pc++) {
+            int insn = code[pc];
+            switch (insn & 0xFF) {
+                case CONST:
+                    stack[++sp] = constants[insn >>> 8];
+                    break;
+                case VAR:
+                    stack[++sp] = x;
+                    break;
+                case ADD:
+                    sp--;
+                    stack[sp] = stack[sp] + stack[sp + 1];
+                    break;
+                case SUB:
+                    sp--;
+                    stack[sp] = stack[sp] - stack[sp + 1];
+                    break;
+                case MUL:
+                    sp--;
+                    stack[sp] = stack[sp] * stack[sp + 1];
+                    break;
+                case DIV:
+                    sp--;
+                    stack[sp] = stack[sp] / stack[sp + 1];
+                    break;
+                case POW:
+                    sp--;
+                    stack[sp] = Math.pow(stack[sp], stack[sp + 1]);
+                    break;
+                case EXP:
+                    stack[sp] = Math.exp(stack[sp]);
+                    break;
+                case SIN:
+                    stack[sp] = Math.sin(stack[sp]);
+                    break;
+                case COS:
+                    stack[sp] = Math.cos(stack[sp]);
+                    break;
+                case TAN:
+                    stack[sp] = Math.tan(stack[sp]);
+                    break;
+                case ASIN:
+                    stack[sp] = Math.asin(stack[sp]);
+                    break;
+                case ACOS:
+                    stack[sp] = Math.acos(stack[sp]);
+                    break;
+                case ATAN:
+                    stack[sp] = Math.atan(stack[sp]);
+                    break;
+                case LN:
+                    stack[sp] = Math.log(stack[sp]);
+                    break;
+                case LOG:
+                    stack[sp] = Math.log10(stack[sp]);
+                    break;
+                case SQUARE:
+                    stack[sp] = stack[sp] * stack[sp];
+                    break;
+                case SQRT:
+                    stack[sp] = sqrtPow(stack[sp]);
+                    break;
+                case POWI:
+                    stack[sp] = powi(stack[sp], insn >> 8);
+                    break;
+                case STORE:
+                    stack[regs + (insn >>> 8)] = stack[sp];
+                    break;
+                case LOAD:
+                    stack[++sp] = stack[regs + (insn >>> 8)];
+                    break;
+                case CALL1:
+                    stack[sp] = this.functions[insn >>> 8].apply(stack[sp]);
+                    break;
+                case CALL2:
+                    sp--;
+                    stack[sp] = this.functions[insn >>> 8].apply(stack[sp], stack[sp + 1]);
+                    break;
+                default:
+                    throw new ExpressionException("Invalid opcode");
+            }
+        }
+    }
+
+    /** Runs the program in forward-mode differentiation, computing every result
+     * together with its derivative with respect to the variable
+     * <p>
+     * Each stack slot and register is a dual number, its value and its
+     * derivative, held in one primitive array per thread, so one pass gives f
+     * and f' without allocating.
+     * A registered function without a derivative uses a central difference
+     * along the direction of its arguments.
+     * @param x The value of the variable
+     * @param out The array to fill with the value and then the derivative of each tree
+     * @throws ExpressionException
+     */
+    void evaluateDual(double x, double[] out) throws ExpressionException {
+        final int[] code = this.code;
+        final double[] constants = this.constants;
+        final double[] dual = this.duals.get();
+        final int ds = this.maxStack;    // the derivative of stack slot i is at ds + i
+        final int rs = 2 * this.maxStack;    // register i is at rs + i
+        final int drs = rs + this.registers;    // and its derivative at drs + i
+        int sp = -1;
+        for (int pc = 0; pc < code.length; pc++) {
+            int insn = code[pc];
+            double a;
+            double da;
+            switch (insn & 0xFF) {
+                case CONST:
+                    dual[++sp] = constants[insn >>> 8];
+                    dual[ds + sp] = 0.0;
+                    break;
+                case VAR:
+                    dual[++sp] = x;
+                    dual[ds + sp] = 1.0;
+                    break;
+                case ADD:
+                    sp--;
+                    dual[sp] = dual[sp] + dual[sp + 1];
+                    dual[ds + sp] = dual[ds + sp] + dual[ds + sp + 1];
+                    break;
+                case SUB:
+                    sp--;
+                    dual[sp] = dual[sp] - dual[sp + 1];
+                    dual[ds + sp] = dual[ds + sp] - dual[ds + sp + 1];
+                    break;
+                case MUL:
+                    sp--;
+                    dual[ds + sp] = dual[ds + sp] * dual[sp + 1] + dual[sp] * dual[ds + sp + 1];
+                    dual[sp] = dual[sp] * dual[sp + 1];
+                    break;
+                case DIV:
+                    sp--;
+                    dual[sp] = dual[sp] / dual[sp + 1];
+                    dual[ds + sp] = (dual[ds + sp] - dual[sp] * dual[ds + sp + 1]) / dual[sp + 1];
+                    break;
+                case POW:
+                    sp--;
+                    dual[ds + sp] = powDerivative(dual[sp], dual[ds + sp], dual[sp + 1], dual[ds + sp + 1]);
+                    dual[sp] = Math.pow(dual[sp], dual[sp + 1]);
+                    break;
+                case SQUARE:
+                    dual[ds + sp] = 2.0 * dual[sp] * dual[ds + sp];
+                    dual[sp] = dual[sp] * dual[sp];
+                    break;
+                case SQRT:
+                    dual[sp] = sqrtPow(dual[sp]);
+                    dual[ds + sp] = 0.5 * dual[ds + sp] / dual[sp];
+                    break;
+                case POWI:
+                    int n = insn >> 8;
+                    dual[ds + sp] = n * powi(dual[sp], n - 1) * dual[ds + sp];
+                    dual[sp] = powi(dual[sp], n);
+                    break;
+                case EXP:
+                    dual[sp] = Math.exp(dual[sp]);
+                    dual[ds + sp] = dual[sp] * dual[ds + sp];
+                    break;
+                case SIN:
+                    dual[ds + sp] = Math.cos(dual[sp]) * dual[ds + sp];
+                    dual[sp] = Math.sin(dual[sp]);
+                    break;
+                case COS:
+                    dual[ds + sp] = -Math.sin(dual[sp]) * dual[ds + sp];
+                    dual[sp] = Math.cos(dual[sp]);
+                    break;
+                case TAN:
+                    a = Math.cos(dual[sp]);
+                    dual[ds + sp] = dual[ds + sp] / (a * a);
+                    dual[sp] = Math.tan(dual[sp]);
+                    break;
+                case ASIN:
+                    a = dual[sp];
+                    dual[ds + sp] = dual[ds + sp] / Math.sqrt(1.0 - a * a);
+                    dual[sp] = Math.asin(a);
+                    break;
+                case ACOS:
+                    a = dual[sp];
+                    dual[ds + sp] = -dual[ds + sp] / Math.sqrt(1.0 - a * a);
+                    dual[sp] = Math.acos(a);
+                    break;
+                case ATAN:
+                    a = dual[sp];
+                    dual[ds + sp] = dual[ds + sp] / (1.0 + a * a);
+                    dual[sp] = Math.atan(a);
+                    break;
+                case LN:
+                    dual[ds + sp] = dual[ds + sp] / dual[sp];
+                    dual[sp] = Math.log(dual[sp]);
+                    break;
+                case LOG:
+                    dual[ds + sp] = dual[ds + sp] / (dual[sp] * LN_10);
+                    dual[sp] = Math.log10(dual[sp]);
+                    break;
+                case STORE:
+                    dual[rs + (insn >>> 8)] = dual[sp];
+                    dual[drs + (insn >>> 8)] = dual[ds + sp];
+                    break;
+                case LOAD:
+                    dual[++sp] = dual[rs + (insn >>> 8)];
+                    dual[ds + sp] = dual[drs + (insn >>> 8)];
+                    break;
+                case CALL1:
+                    UserFunction unary = this.functions[insn >>> 8];
+                    a = dual[sp];
+                    da = dual[ds + sp];
+                    dual[sp] = unary.apply(a);
+                    if (da == 0.0) {
+                        dual[ds + sp] = 0.0;
+                    } else if (unary.derivative() != null) {
+                        dual[ds + sp] = unary.derivative().apply(a) * da;
+                    } else {
+                        double h = DIFFERENCE_STEP * Math.max(1.0, Math.abs(a)) / Math.abs(da);
+                        dual[ds + sp] = (unary.apply(a + h * da) - unary.apply(a - h * da)) / (2 * h);
+                    }
+                    break;
+                case CALL2:
+                    UserFunction binary = this.functions[insn >>> 8];
+                    sp--;
+                    a = dual[sp];
+                    da = dual[ds + sp];
+                    double b = dual[sp + 1];
+                    double db = dual[ds + sp + 1];
+                    dual[sp] = binary.apply(a, b);
+                    if (da == 0.0 && db == 0.0) {
+                        dual[ds + sp] = 0.0;
+                    } else {
+                        double h = DIFFERENCE_STEP * Math.max(1.0, Math.max(Math.abs(a), Math.abs(b)))
+                                / Math.max(Math.abs(da), Math.abs(db));
+                        dual[ds + sp] = (binary.apply(a + h * da, b + h * db) - binary.apply(a - h * da, b - h * db)) / (2 * h);
+                    }
+                    break;
+                default:
+                    throw new ExpressionException("Invalid opcode");
+            }
+        }
+        for (int r = 0; r < this.results; r++) {
+            out[2 * r] = dual[r];
+            out[2 * r + 1] = dual[ds + r];
+        }
+    }
+
+    /** Differentiates a^b for dual numbers, skipping terms whose derivative is zero
+     * @param a The base
+     * @param da The derivative of the base
+     * @param b The exponent
+     * @param db The derivative of the exponent
+     * @return The derivative of a^b
+     */
+    private static double powDerivative(double a, double da, double b, double db) {
+        double derivative = 0.0;
+        if (da != 0.0) {
+            derivative += b * Math.pow(a, b - 1.0) * da;
+        }
+        if (db != 0.0) {
+            derivative += Math.pow(a, b) * Math.log(a) * db;
+        }
+        return derivative;
+    }
+
+    /** Runs the program in interval arithmetic, bounding every result over a range of the variable
+     * <p>
+     * The bounds enclose the value of each tree at every point of the range
+     * where it is defined, widened by an ulp per operation for rounding. A
+     * result is empty, lower bound above upper bound, when the tree is defined
+     * nowhere in the range, and unbounded across poles such as those of tan and
+     * 1/x. Registered functions are treated as unbounded.
+     * @param xLo The lower end of the range
+     * @param xHi The upper end of the range
+     * @param out The array to fill with the lower and then the upper bound of each tree
+     * @throws ExpressionException
+     */
+    void evaluateInterval(double xLo, double xHi, double[] out) throws ExpressionException {
+        final int[] code = this.code;
+        final double[] lo = new double[this.maxStack];
+        final double[] hi = new double[this.maxStack];
+        final double[] regLo = new double[this.registers];
+        final double[] regHi = new double[this.registers];
+        int sp = -1;
+        for (int pc = 0; pc < code.length; pc++) {
+            int insn = code[pc];
+            int op = insn & 0xFF;
+            switch (op) {
+                case CONST:
+                    lo[++sp] = this.constants[insn >>> 8];
+                    hi[sp] = lo[sp];
+                    continue;
+                case VAR:
+                    lo[++sp] = xLo;
+                    hi[sp] = xHi;
+                    continue;
+                case STORE:
+                    regLo[insn >>> 8] = lo[sp];
+                    regHi[insn >>> 8] = hi[sp];
+                    continue;
+                case LOAD:
+                    lo[++sp] = regLo[insn >>> 8];
+                    hi[sp] = regHi[insn >>> 8];
+                    continue;
+                case ADD:
+                case SUB:
+                case MUL:
+                case DIV:
+                case POW:
+                case CALL2:
+                    sp--;
+                    if (lo[sp] > hi[sp] || lo[sp + 1] > hi[sp + 1]) {
+                        lo[sp] = Double.POSITIVE_INFINITY;
+                        hi[sp] = Double.NEGATIVE_INFINITY;
+                        continue;
+                    }
+                    Interval.binary(op, lo, hi, sp);
+                    continue;
+                default:
+                    if (lo[sp] > hi[sp]) {
+                        continue;    // undefined stays undefined
+                    }
+                    Interval.unary(insn, lo, hi, sp);
+            }
+        }
+        for (int r = 0; r < this.results; r++) {
+            out[2 * r] = lo[r];
+            out[2 * r + 1] = hi[r];
+        }
+    }
+
+    /** Runs the program over a whole grid of variable values
+     * <p>
+     * Instructions are applied column-wise to blocks of samples, so the opcode
+     * dispatch is paid once per block and the arithmetic runs as plain array
+     * loops that the JIT can vectorize.
+     * @param xs The variable values
+     * @param outs The arrays to fill with the results, one per compiled tree
+     * @throws ExpressionException
+     */
+    void evaluate(double[] xs, double[]... outs) throws ExpressionException {
+        final int[] code = this.code;
+        final int n = xs.length;
+        final double[][] stack = new double[this.maxStack][Math.min(BLOCK, n)];
+        final double[][] regs = new double[this.registers][Math.min(BLOCK, n)];
+        for (int from = 0; from < n; from += BLOCK) {
+            final int len = Math.min(BLOCK, n - from);
+            int sp = -1;
+            for (int pc = 0; pc < code.length; pc++) {
+                int insn = code[pc];
+                double[] a;
+                double[] b;
+                switch (insn & 0xFF) {
+                    case CONST:
+                        Arrays.fill(stack[++sp], 0, len, this.constants[insn >>> 8]);
+                        break;
+                    case VAR:
+                        System.arraycopy(xs, from, stack[++sp], 0, len);
+                        break;
+                    case STORE:
+                        System.arraycopy(stack[sp], 0, regs[insn >>> 8], 0, len);
+                        break;
+                    case LOAD:
+                        System.arraycopy(regs[insn >>> 8], 0, stack[++sp], 0, len);
+                        break;
+                    case ADD:
+                        a = stack[--sp];
+                        b = stack[sp + 1];
+                        for (int i = 0; i < len; i++) {
+                            a[i] = a[i] + b[i];
+                        }
+                        break;
+                    case SUB:
+                        a = stack[--sp];
+                        b = stack[sp + 1];
+                        for (int i = 0; i < len; i++) {
+                            a[i] = a[i] - b[i];
+                        }
+                        break;
+                    case MUL:
+                        a = stack[--sp];
+                        b = stack[sp + 1];
+                        for (int i = 0; i < len; i++) {
+                            a[i] = a[i] * b[i];
+                        }
+                        break;
+                    case DIV:
+                        a = stack[--sp];
+                        b = stack[sp + 1];
+                        for (int i = 0; i < len; i++) {
+                            a[i] = a[i] / b[i];
+                        }
+                        break;
+                    case POW:
+                        a = stack[--sp];
+                        b = stack[sp + 1];
+                        for (int i = 0; i < len; i++) {
+                            a[i] = Math.pow(a[i], b[i]);
+                        }
+                        break;
+                    case CALL1:
+                        UserFunction unary = this.functions[insn >>> 8];
+                        a = stack[sp];
+                        for (int i = 0; i < len; i++) {
+                            a[i] = unary.apply(a[i]);
+                        }
+                        break;
+                    case CALL2:
+                        UserFunction binary = this.functions[insn >>> 8];
+                        a = stack[--sp];
+                        b = stack[sp + 1];
+                        for (int i = 0; i < len; i++) {
+                            a[i] = binary.apply(a[i], b[i]);
+                        }
+                        break;
+                    default:
+                        applyFunction(insn, stack[sp], len);
+                }
+            }
+            for (int r = 0; r < outs.length; r++) {
+                System.arraycopy(stack[r], 0, outs[r], from, len);
+            }
+        }
+    }
+
+    /** Applies a one-argument instruction to a column in place
+     * @param insn The instruction
+     * @param column The column of arguments
+     * @param len The number of samples in the column
+     * @throws ExpressionException
+     */
+    private static void applyFunction(int insn, double[] column, int len) throws ExpressionException {
+        switch (insn & 0xFF) {
+            case SQUARE:
+                for (int i = 0; i < len; i++) {
+                    column[i] = column[i] * column[i];
+                }
+                break;
+            case SQRT:
+                for (int i = 0; i < len; i++) {
+                    column[i] = sqrtPow(column[i]);
+                }
+                break;
+            case POWI:
+                int n = insn >> 8;
+                for (int i = 0; i < len; i++) {
+                    column[i] = powi(column[i], n);
+                }
+                break;
+            case EXP:
+                for (int i = 0; i < len; i++) {
+                    column[i] = Math.exp(column[i]);
+                }
+                break;
+            case SIN:
+                for (int i = 0; i < len; i++) {
+                    column[i] = Math.sin(column[i]);
+                }
+                break;
+            case COS:
+                for (int i = 0; i < len; i++) {
+                    column[i] = Math.cos(column[i]);
+                }
+                break;
+            case TAN:
+                for (int i = 0; i < len; i++) {
+                    column[i] = Math.tan(column[i]);
+                }
+                break;
+            case ASIN:
+                for (int i = 0; i < len; i++) {
+                    column[i] = Math.asin(column[i]);
+                }
+                break;
+            case ACOS:
+                for (int i = 0; i < len; i++) {
+                    column[i] = Math.acos(column[i]);
+                }
+                break;
+            case ATAN:
+                for (int i = 0; i < len; i++) {
+                    column[i] = Math.atan(column[i]);
+                }
+                break;
+            case LN:
+                for (int i = 0; i < len; i++) {
+                    column[i] = Math.log(column[i]);
+                }
+                break;
+            case LOG:
+                for (int i = 0; i < len; i++) {
+                    column[i] = Math.log10(column[i]);
+                }
+                break;
+            default:
+                throw new ExpressionException("Invalid opcode");
+        }
+    }
+
+    /**
+     * Builder accumulates instructions and constants while walking a syntax tree
+     */
+    private static final class Builder {
+
+        private int[] code = new int[16];
+        private int length = 0;
+        private double[] constants = new double[4];
+        private int constantCount = 0;
+        private final Map<Double, Integer> constantIndex = new HashMap<>();
+        private int depth = 0;
+        private int maxDepth = 0;
+        private boolean usesVariable = false;
+        private final Map<ASTNode, Integer> uses = new IdentityHashMap<>();
+        private final Map<ASTNode, Integer> slots = new IdentityHashMap<>();
+        private final List<UserFunction> functions = new ArrayList<>();
+        private final Map<UserFunction, Integer> functionIndex = new IdentityHashMap<>();
+
+        /** Counts how many parents reference each node
+         * @param root The root of a tree
+         */
+        void countUses(ASTNode root) {
+            if (root == null) {
+                return;
+            }
+            Integer count = this.uses.get(root);
+            this.uses.put(root, count == null ? 1 : count + 1);
+            if (count != null) {
+                return;
+            }
+            Deque<ASTNode> pending = new ArrayDeque<>();
+            pending.push(root);
+            while (!pending.isEmpty()) {
+                ASTNode node = pending.pop();
+                countChild(node.getLeft(), pending);
+                countChild(node.getRight(), pending);
+            }
+        }
+
+        private void countChild(ASTNode child, Deque<ASTNode> pending) {
+            if (child == null) {
+                return;
+            }
+            Integer count = this.uses.get(child);
+            this.uses.put(child, count == null ? 1 : count + 1);
+            if (count == null) {
+                pending.push(child);
+            }
+        }
+
+        /** Emits the postfix code for a node and its children
+         * <p>
+         * The walk keeps its own stack: a node is pushed once to emit its
+         * operands and again, marked expanded, to emit its own instruction.
+         * @param root The node to emit
+         */
+        void emitNode(ASTNode root) {
+            Deque<ASTNode> pending = new ArrayDeque<>();
+            Map<ASTNode, Boolean> expanded = new IdentityHashMap<>();
+            pending.push(root);
+            while (!pending.isEmpty()) {
+                ASTNode node = pending.pop();
+                if (expanded.remove(node) != null) {
+                    emitOperation(node);
+                    if (isShared(node)) {
+                        this.slots.put(node, this.slots.size());
+                        emit(STORE, this.slots.get(node), 0);
+                    }
+                    continue;
+                }
+                Integer slot = this.slots.get(node);
+                if (slot != null) {
+                    emit(LOAD, slot, 1);
+                    continue;
+                }
+                expanded.put(node, Boolean.TRUE);
+                pending.push(node);
+                // operands are pushed last to first so they are emitted first to last
+                if (node.getRight() != null && !isUnaryPower(node)) {
+                    pending.push(node.getRight());
+                }
+                if (node.getLeft() != null) {
+                    pending.push(node.getLeft());
+                }
+            }
+        }
+
+        /** Checks if a node is worth keeping in a register
+         * @param node The node to check
+         * @return True if the node is an operation referenced more than once
+         */
+        private boolean isShared(ASTNode node) {
+            Integer count = this.uses.get(node);
+            Lexer.TokenType type = node.getTokenType();
+            return count != null && count > 1 && type != Lexer.TokenType.NUM && type != Lexer.TokenType.VAR;
+        }
+
+        /** Emits the instruction computing a node from operands already on the stack
+         * @param node The node to emit
+         */
+        private void emitOperation(ASTNode node) {
+            switch (node.getTokenType()) {
+                case NUM:
+                    emit(CONST, constant(node.getNumber()), 1);
+                    break;
+                case VAR:
+                    this.usesVariable = true;
+                    emit(VAR, 0, 1);
+                    break;
+                case PLUS:
+                    emit(ADD, 0, -1);
+                    break;
+                case MINUS:
+                    emit(SUB, 0, -1);
+                    break;
+                case MUL:
+                    emit(MUL, 0, -1);
+                    break;
+                case DIV:
+                    emit(DIV, 0, -1);
+                    break;
+                case EXP:
+                    emitPower(node);
+                    break;
+                case FUNC:
+                    emitFunc(node);
+                    break;
+                default:
+                    throw new IllegalStateException("Invalid TokenType " + node.getTokenType());
+            }
+        }
+
+        /** Checks if a power has a constant exponent that replaces Math.pow
+         * @param node The node to check
+         * @return True if the node is an EXP node computed from its base alone
+         */
+        private static boolean isUnaryPower(ASTNode node) {
+            ASTNode exponent = node.getRight();
+            if (node.getTokenType() != Lexer.TokenType.EXP || exponent.getTokenType() != Lexer.TokenType.NUM) {
+                return false;
+            }
+            double n = exponent.getNumber();
+            return n == 2.0 || n == 0.5 || (fastPow && n == Math.rint(n) && Math.abs(n) <= MAX_CHAIN_EXPONENT);
+        }
+
+        /** Emits a power, replacing Math.pow for constant exponents where possible
+         * @param node The EXP node, with its base on the stack and its exponent too unless isUnaryPower
+         */
+        private void emitPower(ASTNode node) {
+            if (!isUnaryPower(node)) {
+                emit(POW, 0, -1);
+                return;
+            }
+            double n = node.getRight().getNumber();
+            if (n == 2.0) {
+                emit(SQUARE, 0, 0);
+            } else if (n == 0.5) {
+                emit(SQRT, 0, 0);
+            } else {
+                emit(POWI, (int) n & 0xFFFFFF, 0);
+            }
+        }
+
+        /** Emits the instruction for the function of a FUNC node
+         * @param node The FUNC node
+         */
+        private void emitFunc(ASTNode node) {
+            BuiltinFunction builtin = node.getFunction();
+            if (builtin != null) {
+                emit(builtin.opcode(), 0, 0);
+                return;
+            }
+            UserFunction function = node.getUserFunction();
+            if (function == null) {
+                throw new IllegalArgumentException("UNKNOWN FUNCTION: " + node.getTokenVal());
+            }
+            Integer index = this.functionIndex.get(function);
+            if (index == null) {
+                index = this.functions.size();
+                this.functions.add(function);
+                this.functionIndex.put(function, index);
+            }
+            if (function.arity() == 2) {
+                emit(CALL2, index, -1);
+            } else {
+                emit(CALL1, index, 0);
+            }
+        }
+
+        /** Returns the pool index of a constant, adding it if needed
+         * @param value The constant value
+         * @return The index in the constant pool
+         */
+        private int constant(double value) {
+            Integer index = this.constantIndex.get(value);
+            if (index != null) {
+                return index;
+            }
+            if (this.constantCount == this.constants.length) {
+                this.constants = Arrays.copyOf(this.constants, this.constantCount * 2);
+            }
+            this.constants[this.constantCount] = value;
+            this.constantIndex.put(value, this.constantCount);
+            return this.constantCount++;
+        }
+
+        /** Appends an instruction
+         * @param op The opcode
+         * @param operand The operand
+         * @param stackEffect The change in stack depth
+         */
+        private void emit(int op, int operand, int stackEffect) {
+            if (this.length == this.code.length) {
+                this.code = Arrays.copyOf(this.code, this.length * 2);
+            }
+            this.code[this.length++] = (operand << 8) | op;
+            this.depth += stackEffect;
+            this.maxDepth = Math.max(this.maxDepth, this.depth);
+        }
+
+        Program build(int results) {
+            return new Program(Arrays.copyOf(this.code, this.length),
+                    Arrays.copyOf(this.constants, this.constantCount),
+                    this.functions.toArray(new UserFunction[0]), this.maxDepth,
+                    this.slots.size(), results, this.usesVariable);
+        }
+    }
+}
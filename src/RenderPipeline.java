@@ -0,0 +1,183 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * RenderPipeline evaluates the curves of the graph on a pool of worker
+ * threads, so the application thread never waits for a heavy function.
+ * <p>
+ * Every request starts a new generation and interrupts the workers still
+ * busy with older ones; the samplers check for interruption as they go, so a
+ * request superseded by a later drag stops mid-flight. When every curve of a
+ * request is done its results are handed to the publisher, normally the
+ * JavaFX application thread, and published only if no later request was made
+ * meanwhile. Workers of an old and a new request may evaluate the same
+ * cached Expression at once, which Expression allows. The number of workers
+ * is read from the system property "calculator.render.threads"; 0 renders on
+ * the calling thread.
+ *
+ * @param <T> The geometry built for one function
+ */
+final class RenderPipeline<T> {
+
+    /**
+     * Functional interface building the geometry of one function
+     *
+     * @param <T> The geometry
+     */
+    interface Renderer<T> {
+        /** Builds the geometry of a function
+         * @param funct The function, never null
+         * @return The geometry
+         * @throws CancellationException if the thread was interrupted because the request is stale
+         */
+        T render(Function funct);
+    }
+
+    private static final int DEFAULT_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+    private final ExecutorService workers;    // null to render on the calling thread
+    private final Executor publisher;
+    private final AtomicLong generation = new AtomicLong();
+    private final List<Future<?>> inFlight = new ArrayList<>();
+
+    /** Constructor for the RenderPipeline
+     * @param threads The number of worker threads, 0 to render on the calling thread
+     * @param publisher Runs the publishing of finished results, such as Platform::runLater
+     */
+    RenderPipeline(int threads, Executor publisher) {
+        if (threads < 0) {
+            throw new IllegalArgumentException("Thread count must not be negative");
+        }
+        this.publisher = publisher;
+        this.workers = threads == 0 ? null : Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "graph-render");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Returns the number of workers the view uses
+     * @return The thread count, 0 to render on the application thread
+     */
+    static int defaultThreads() {
+        return Math.max(0, Integer.getInteger("calculator.render.threads", DEFAULT_THREADS));
+    }
+
+    /** Renders every function of a request, superseding all earlier requests
+     * @param functs The functions; null entries get null results
+     * @param renderer Builds the geometry of one function, on a worker thread
+     * @param publish Receives the geometry of every function in order, through the publisher,
+     *                unless a later request was made first
+     * @return The generation of the request
+     */
+    long submit(List<Function> functs, Renderer<T> renderer, Consumer<List<T>> publish) {
+        final long current = this.generation.incrementAndGet();
+        final List<Function> request = new ArrayList<>(functs);
+        @SuppressWarnings("unchecked")
+        final T[] results = (T[]) new Object[request.size()];
+        if (this.workers == null) {
+            for (int i = 0; i < results.length; i++) {
+                results[i] = request.get(i) == null ? null : renderer.render(request.get(i));
+            }
+            publish.accept(Collections.unmodifiableList(Arrays.asList(results)));
+            return current;
+        }
+        final AtomicInteger remaining = new AtomicInteger(results.length);
+        synchronized (this.inFlight) {
+            interruptStale();
+            if (results.length == 0) {
+                finish(current, results, publish);
+            }
+            for (int i = 0; i < results.length; i++) {
+                final int index = i;
+                this.inFlight.add(this.workers.submit(() -> {
+                    try {
+                        Function funct = request.get(index);
+                        if (funct != null && isCurrent(current)) {
+                            results[index] = renderer.render(funct);
+                        }
+                    } catch (CancellationException superseded) {
+                        return;
+                    }
+                    if (remaining.decrementAndGet() == 0) {
+                        finish(current, results, publish);
+                    }
+                }));
+            }
+        }
+        return current;
+    }
+
+    /** Checks if a generation is the latest request
+     * @param generation The generation of a request
+     * @return True if no later request was made
+     */
+    boolean isCurrent(long generation) {
+        return this.generation.get() == generation;
+    }
+
+    /** Returns the generation of the latest request
+     * @return The generation, 0 before the first request
+     */
+    long generation() {
+        return this.generation.get();
+    }
+
+    /** Drops every request in flight, so none of them is published
+     */
+    void cancel() {
+        this.generation.incrementAndGet();
+        synchronized (this.inFlight) {
+            interruptStale();
+        }
+    }
+
+    /** Stops the workers, dropping any request in flight
+     */
+    void shutdown() {
+        this.generation.incrementAndGet();
+        if (this.workers != null) {
+            this.workers.shutdownNow();
+        }
+    }
+
+    /** Throws if the current thread was interrupted because its render is stale, for long sampling loops
+     * @throws CancellationException if the thread was interrupted
+     */
+    static void checkCancelled() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Render superseded");
+        }
+    }
+
+    private void interruptStale() {
+        for (Future<?> stale : this.inFlight) {
+            stale.cancel(true);
+        }
+        this.inFlight.clear();
+    }
+
+    private void finish(long current, T[] results, Consumer<List<T>> publish) {
+        if (!isCurrent(current)) {
+            return;
+        }
+        List<T> finished = Collections.unmodifiableList(Arrays.asList(results));
+        this.publisher.execute(() -> {
+            if (isCurrent(current)) {
+                publish.accept(finished);
+            }
+        });
+    }
+}
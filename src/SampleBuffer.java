@@ -0,0 +1,166 @@
+package src;
+
+import java.util.Arrays;
+
+/**
+ * SampleBuffer holds the sampled points of a curve in two parallel arrays of
+ * x and y coordinates, so a curve of any length is two objects rather than a
+ * boxed key and a Point per sample.
+ * <p>
+ * A buffer is meant to be kept and filled again on every redraw; its arrays
+ * only grow. Searching and trimming assume the samples are in increasing x,
+ * as those of a SingleVariate or Derivative on an increasing grid are.
+ */
+final class SampleBuffer {
+
+    private double[] xs;
+    private double[] ys;
+    private int size = 0;
+
+    /**
+     * Functional interface for visiting the samples in order
+     */
+    interface SampleVisitor {
+        void visit(double x, double y);
+    }
+
+    /**
+     * Constructor for an empty buffer
+     */
+    SampleBuffer() {
+        this(16);
+    }
+
+    /** Constructor for an empty buffer
+     * @param capacity The number of samples to make room for
+     */
+    SampleBuffer(int capacity) {
+        this.xs = new double[Math.max(capacity, 1)];
+        this.ys = new double[Math.max(capacity, 1)];
+    }
+
+    /** Empties the buffer and makes room for a number of samples, keeping the arrays if they are large enough
+     * @param capacity The number of samples
+     */
+    void reset(int capacity) {
+        if (capacity > this.xs.length) {
+            this.xs = new double[capacity];
+            this.ys = new double[capacity];
+        }
+        this.size = 0;
+    }
+
+    /** Empties the buffer
+     */
+    void clear() {
+        this.size = 0;
+    }
+
+    /** Appends a sample
+     * @param x The x coordinate
+     * @param y The y coordinate
+     */
+    void add(double x, double y) {
+        if (this.size == this.xs.length) {
+            this.xs = Arrays.copyOf(this.xs, this.size * 2);
+            this.ys = Arrays.copyOf(this.ys, this.size * 2);
+        }
+        this.xs[this.size] = x;
+        this.ys[this.size++] = y;
+    }
+
+    /** Returns the number of samples
+     * @return The size
+     */
+    int size() {
+        return this.size;
+    }
+
+    double x(int index) {
+        return this.xs[index];
+    }
+
+    double y(int index) {
+        return this.ys[index];
+    }
+
+    /** Returns the array of x coordinates, to be filled directly before setSize
+     * @return The array, at least as long as the last reset
+     */
+    double[] xs() {
+        return this.xs;
+    }
+
+    /** Returns the array of y coordinates, to be filled directly before setSize
+     * @return The array, at least as long as the last reset
+     */
+    double[] ys() {
+        return this.ys;
+    }
+
+    /** Sets the number of samples after the arrays were filled directly
+     * @param size The number of samples, at most the length of the arrays
+     */
+    void setSize(int size) {
+        if (size < 0 || size > this.xs.length) {
+            throw new IllegalArgumentException("Size out of range: " + size);
+        }
+        this.size = size;
+    }
+
+    /** Visits the samples in order
+     * @param visitor Called with each sample
+     */
+    void forEach(SampleVisitor visitor) {
+        for (int i = 0; i < this.size; i++) {
+            visitor.visit(this.xs[i], this.ys[i]);
+        }
+    }
+
+    /** Finds the sample at an x coordinate
+     * @param x The x coordinate
+     * @return The index of the sample, or (-(insertion point) - 1) if there is none, as for Arrays.binarySearch
+     */
+    int indexOf(double x) {
+        return Arrays.binarySearch(this.xs, 0, this.size, x);
+    }
+
+    /** Finds the first sample at or after an x coordinate
+     * @param x The x coordinate
+     * @return The index of the sample, or size() if every sample is before x
+     */
+    int ceiling(double x) {
+        int lo = 0;
+        int hi = this.size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (this.xs[mid] < x) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Drops the samples outside a range of x, keeping the nearest one beyond each end so the
+     * segments crossing the edges of the range are still drawn
+     * @param xMin The left edge of the range
+     * @param xMax The right edge of the range
+     */
+    void trim(double xMin, double xMax) {
+        int first = ceiling(xMin);
+        int end = ceiling(Math.nextUp(xMax));    // the first sample after xMax
+        if (first == this.size || end == 0) {
+            this.size = 0;
+            return;
+        }
+        int from = Math.max(first - 1, 0);
+        int to = Math.min(end + 1, this.size);
+        if (from > 0) {
+            System.arraycopy(this.xs, from, this.xs, 0, to - from);
+            System.arraycopy(this.ys, from, this.ys, 0, to - from);
+        }
+        this.size = to - from;
+    }
+}
@@ -0,0 +1,143 @@
+package src;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Simplifier rewrites a syntax tree into an equivalent, cheaper one
+ * <p>
+ * Variable-free subtrees, including calls such as sin(2), are folded into a
+ * single NUM node by running them through the same Program the evaluator uses,
+ * so folded values are bit-identical to evaluating them on every sample.
+ * Only identities that hold for every double, NaN, infinities and signed zeros
+ * included, are applied: x*1, 1*x, x/1, x-0, x+(-0), x^1 and x^0. In particular
+ * x+0 is kept, since -0 + 0 is +0, and 0*x is kept, since it is NaN for
+ * infinite x.
+ */
+final class Simplifier {
+
+    private Simplifier() {
+    }
+
+    /** Simplifies a syntax tree, rewriting its nodes in place
+     * @param root The root of the tree
+     * @return The root of the simplified tree
+     */
+    static ASTNode simplify(ASTNode root) {
+        Map<ASTNode, ASTNode> simplified = new IdentityHashMap<>();
+        for (ASTNode node : ASTNode.postOrder(root)) {
+            simplified.put(node, simplifyNode(node, simplified));
+        }
+        return simplified.get(root);
+    }
+
+    /** Simplifies one node whose children are already simplified
+     * @param node The node to simplify
+     * @param simplified The simplified form of every node below it
+     * @return The simplified node
+     */
+    private static ASTNode simplifyNode(ASTNode node, Map<ASTNode, ASTNode> simplified) {
+        switch (node.getTokenType()) {
+            case NUM:
+            case VAR:
+                return node;
+            case FUNC:
+                replaceChildren(node, simplified);    // a registered function may have a second argument
+                return isNumber(node.getLeft()) && (node.getRight() == null || isNumber(node.getRight()))
+                        ? fold(node) : node;
+            default:
+                replaceChildren(node, simplified);
+                if (isNumber(node.getLeft()) && isNumber(node.getRight())) {
+                    return fold(node);
+                }
+                return applyIdentities(node);
+        }
+    }
+
+    /** Points a node at the simplified forms of its children, leaving unchanged children as they are
+     * @param node The node
+     * @param simplified The simplified form of every node below it
+     */
+    private static void replaceChildren(ASTNode node, Map<ASTNode, ASTNode> simplified) {
+        ASTNode left = node.getLeft();
+        ASTNode right = node.getRight();
+        if (left != null && simplified.get(left) != left) {
+            node.setLeft(simplified.get(left));
+        }
+        if (right != null && simplified.get(right) != right) {
+            node.setRight(simplified.get(right));
+        }
+    }
+
+    /** Replaces an operator node by one of its operands where that is exact
+     * @param node The operator node, with simplified children
+     * @return The simplified node
+     */
+    private static ASTNode applyIdentities(ASTNode node) {
+        ASTNode left = node.getLeft();
+        ASTNode right = node.getRight();
+        switch (node.getTokenType()) {
+            case PLUS:
+                if (isNumber(right, -0.0)) {
+                    return left;
+                } else if (isNumber(left, -0.0)) {
+                    return right;
+                }
+                break;
+            case MINUS:
+                if (isNumber(right, 0.0)) {
+                    return left;
+                }
+                break;
+            case MUL:
+                if (isNumber(right, 1.0)) {
+                    return left;
+                } else if (isNumber(left, 1.0)) {
+                    return right;
+                }
+                break;
+            case DIV:
+                if (isNumber(right, 1.0)) {
+                    return left;
+                }
+                break;
+            case EXP:
+                if (isNumber(right, 1.0)) {
+                    return left;
+                } else if (isNumber(right, 0.0) || isNumber(right, -0.0)) {
+                    return ASTNode.number(1.0);
+                }
+                break;
+            default:
+                break;
+        }
+        return node;
+    }
+
+    /** Evaluates a variable-free node into a NUM node
+     * @param node The node to fold
+     * @return The folded node, or the node itself if it cannot be evaluated
+     */
+    private static ASTNode fold(ASTNode node) {
+        try {
+            return ASTNode.number(Program.compile(node).evaluate(0.0));
+        } catch (ExpressionException e) {
+            // leave the node to report its error when evaluated
+            return node;
+        }
+    }
+
+    private static boolean isNumber(ASTNode node) {
+        return node.getTokenType() == Lexer.TokenType.NUM;
+    }
+
+    /** Checks if a node is a NUM with exactly the given value, sign of zero included
+     * @param node The node to check
+     * @param value The value to compare to
+     * @return True if the node is that number
+     */
+    private static boolean isNumber(ASTNode node, double value) {
+        return isNumber(node) && Double.doubleToRawLongBits(node.getNumber())
+                == Double.doubleToRawLongBits(value);
+    }
+}
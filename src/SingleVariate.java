@@ -1,25 +1,91 @@
 package src;
 
+import java.util.Arrays;
+
 public class SingleVariate extends Function {
 
+    private static final long serialVersionUID = -6915173309879716706L;    // computed from the first release, so saved graphs load
     private Expression expr;
+    private String source;    // as typed, the cached Expression may have been built from other spacing
 
     public SingleVariate(String expr, double minRange, double maxRange) {
         super(minRange, maxRange);
-        this.expr = new Expression(expr);
+        this.expr = ExpressionCache.shared().get(expr);
+        this.source = expr;
+    }
+
+    /** Constructor for a function of an Expression that is already built
+     * @param expr The Expression
+     * @param source The text of the expression as typed
+     * @param minRange The start of the domain
+     * @param maxRange The end of the domain
+     */
+    SingleVariate(Expression expr, String source, double minRange, double maxRange) {
+        super(minRange, maxRange);
+        this.expr = expr;
+        this.source = source;
+    }
+
+    @Override
+    void calcInto(double x, double[] xs, double[] ys, int index) {
+        xs[index] = x;
+        ys[index] = expr.valueAt(x);
     }
 
     @Override
-    public Point calc(double x) {
+    void calc(double[] grid, double[] xs, double[] ys) {
+        System.arraycopy(grid, 0, xs, 0, grid.length);
+        this.evaluate(grid, ys);
+    }
+
+    @Override
+    void calcGrid(double start, double step, double[] xs, double[] ys) {
+        for (int k = 0; k < xs.length; k++) {
+            xs[k] = start + k * step;
+        }
+        try {
+            expr.evaluateGrid(start, step, ys);
+        } catch (ExpressionException expressionException) {
+            Arrays.fill(ys, Double.NaN);
+        }
+    }
+
+    @Override
+    boolean bound(double from, double to, double[] out) {
+        try {
+            expr.evaluateInterval(from, to, out);
+            return true;
+        } catch (ExpressionException expressionException) {
+            return false;
+        }
+    }
+
+    @Override
+    Object tileKey() {
+        return this.expr;
+    }
+
+    /** Returns the expression of the function
+     * @return The Expression
+     */
+    Expression expression() {
+        return this.expr;
+    }
+
+    /** Evaluates the expression over a grid
+     * @param grid the input values
+     * @param out filled with f(x), or NaN if the equation is invalid
+     */
+    void evaluate(double[] grid, double[] out) {
         try {
-            return new Point(x, expr.evaluate(x));
+            expr.evaluate(grid, out);
         } catch (ExpressionException expressionException) {
-            return new Point(x, Double.NaN);
+            Arrays.fill(out, 0, grid.length, Double.NaN);
         }
     }
 
     @Override
     public String toString() {
-    	return expr.toString();
+    	return source != null ? source : expr.toString();
     }
 }
@@ -0,0 +1,49 @@
+package src;
+
+/**
+ * StandardFunctions is the FunctionLibrary shipped with the calculator:
+ * hyperbolic functions, abs, sqrt, erf, min and max. It is always part of the
+ * default FunctionRegistry.
+ */
+public class StandardFunctions implements FunctionLibrary {
+
+    private static final double TWO_OVER_ROOT_PI = 1.1283791670955126;
+    private static final double ERF_SATURATION = 6.0;    // erf(6) is 1 to double precision
+
+    @Override
+    public void registerFunctions(FunctionRegistry registry) {
+        registry.register("sinh", Math::sinh, Math::cosh);
+        registry.register("cosh", Math::cosh, Math::sinh);
+        registry.register("tanh", Math::tanh, a -> 1.0 / (Math.cosh(a) * Math.cosh(a)));
+        registry.register("abs", a -> Math.abs(a), a -> Math.signum(a));
+        registry.register("sqrt", Math::sqrt, a -> 0.5 / Math.sqrt(a));
+        registry.register("erf", StandardFunctions::erf, a -> TWO_OVER_ROOT_PI * Math.exp(-a * a));
+        registry.register("min", (double a, double b) -> Math.min(a, b));
+        registry.register("max", (double a, double b) -> Math.max(a, b));
+    }
+
+    /** Computes the error function
+     * <p>
+     * Uses the series erf(x) = 2/sqrt(pi) e^(-x^2) sum 2^n x^(2n+1) / (1*3*...*(2n+1)),
+     * whose terms are all positive, so there is no cancellation.
+     * @param x The argument
+     * @return erf(x)
+     */
+    static double erf(double x) {
+        if (Double.isNaN(x)) {
+            return x;
+        }
+        double a = Math.abs(x);
+        if (a >= ERF_SATURATION) {
+            return Math.copySign(1.0, x);
+        }
+        double term = a;
+        double sum = a;
+        double x2 = a * a;
+        for (int n = 1; term > sum * 1e-17; n++) {
+            term *= 2.0 * x2 / (2 * n + 1);
+            sum += term;
+        }
+        return Math.copySign(TWO_OVER_ROOT_PI * Math.exp(-x2) * sum, x);
+    }
+}
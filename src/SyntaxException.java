@@ -0,0 +1,51 @@
+package src;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Represents an error in the text of an Expression, found while parsing it
+ * <p>
+ * The parser carries on past an error to find any others, so the exception
+ * thrown for a text is its first error and lists all of them.
+ */
+public class SyntaxException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+    private final int position;
+    private List<SyntaxException> errors = Collections.singletonList(this);
+
+    public SyntaxException(String msg) {
+        this(msg, -1);
+    }
+
+    /** Constructor for an error at a known place in the text
+     * @param msg The description of the error
+     * @param position The index of the char in the text where the error was found
+     */
+    public SyntaxException(String msg, int position) {
+        super(msg);
+        this.position = position;
+    }
+
+    /** Returns where the error was found
+     * @return The index of the char in the text, or -1 if it is not known
+     */
+    public int getPosition() {
+        return this.position;
+    }
+
+    /** Returns every error found in the same pass over the text
+     * @return The errors in the order they were found, this one first
+     */
+    public List<SyntaxException> getErrors() {
+        return this.errors;
+    }
+
+    /** Sets the errors found in the same pass over the text
+     * @param errors The errors, this one first
+     */
+    void setErrors(List<SyntaxException> errors) {
+        this.errors = Collections.unmodifiableList(errors);
+    }
+}
@@ -0,0 +1,312 @@
+package src;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * SyntaxTree stores a syntax tree in parallel arrays instead of one object
+ * per node
+ * <p>
+ * Node i has the packed op ops[i], (operand << 8) | TokenType ordinal, where
+ * the operand indexes the constant pool for a NUM and the name pool for a VAR
+ * or FUNC. Its children are children[2i] and children[2i + 1], -1 where it has
+ * none. Nodes are added after their children, so every child has a lower index
+ * than its parent, and a node may be the child of several parents, as in a
+ * hash-consed DAG. Trees are read through ASTNode views, see root().
+ */
+final class SyntaxTree implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private static final Lexer.TokenType[] TYPES = Lexer.TokenType.values();
+
+    private int[] ops;
+    private int[] children;
+    private double[] constants;
+    private String[] names;
+    private transient UserFunction[] functions;    // bound per name, looked up again after loading
+    private int size = 0;
+    private int constantCount = 0;
+    private int nameCount = 0;
+    private int root = -1;
+
+    /** Constructor for an empty tree
+     * @param capacity The number of nodes to make room for
+     */
+    SyntaxTree(int capacity) {
+        capacity = Math.max(capacity, 1);
+        this.ops = new int[capacity];
+        this.children = new int[capacity * 2];
+        this.constants = new double[Math.max(capacity / 2, 1)];
+        this.names = new String[4];
+        this.functions = new UserFunction[4];
+    }
+
+    /** Adds a NUM node
+     * @param value The number
+     * @return The index of the node
+     */
+    int number(double value) {
+        if (this.constantCount == this.constants.length) {
+            this.constants = Arrays.copyOf(this.constants, this.constantCount * 2);
+        }
+        this.constants[this.constantCount] = value;
+        return add(this.constantCount++, Lexer.TokenType.NUM, -1, -1);
+    }
+
+    /** Adds a VAR node
+     * @param name The name of the variable
+     * @return The index of the node
+     */
+    int variable(String name) {
+        return add(name(name, null), Lexer.TokenType.VAR, -1, -1);
+    }
+
+    /** Adds an operator node
+     * @param type The type of the operator
+     * @param left The index of the left operand
+     * @param right The index of the right operand
+     * @return The index of the node
+     */
+    int operator(Lexer.TokenType type, int left, int right) {
+        return add(0, type, left, right);
+    }
+
+    /** Adds a FUNC node
+     * @param name The name of the function
+     * @param function The registered function it calls, or null for a built-in or unknown function
+     * @param left The index of the first argument
+     * @param right The index of the second argument, or -1
+     * @return The index of the node
+     */
+    int function(String name, UserFunction function, int left, int right) {
+        return add(name(name, function), Lexer.TokenType.FUNC, left, right);
+    }
+
+    /** Appends a run of nodes of another tree, such as a subtree that was added in one piece
+     * @param from The tree to copy from
+     * @param first The index of the first node to copy
+     * @param last The index of the last node to copy; no node in the run may have a child before first
+     * @return The index in this tree of the copy of last
+     */
+    int copy(SyntaxTree from, int first, int last) {
+        int shift = this.size - first;
+        for (int k = first; k <= last; k++) {
+            int left = from.left(k) < 0 ? -1 : from.left(k) + shift;
+            int right = from.right(k) < 0 ? -1 : from.right(k) + shift;
+            switch (from.type(k)) {
+                case NUM:
+                    number(from.number(k));
+                    break;
+                case VAR:
+                    variable(from.text(k));
+                    break;
+                case FUNC:
+                    function(from.text(k), from.userFunction(k), left, right);
+                    break;
+                default:
+                    operator(from.type(k), left, right);
+                    break;
+            }
+        }
+        return last + shift;
+    }
+
+    /** Builds the array form of a syntax tree, keeping nodes it reaches more than once shared
+     * @param root The root of the tree
+     * @return The tree
+     */
+    static SyntaxTree of(ASTNode root) {
+        SyntaxTree tree = new SyntaxTree(16);
+        Map<ASTNode, Integer> indices = new IdentityHashMap<>();
+        for (ASTNode node : ASTNode.postOrder(root)) {
+            int left = node.getLeft() == null ? -1 : indices.get(node.getLeft());
+            int right = node.getRight() == null ? -1 : indices.get(node.getRight());
+            int index;
+            switch (node.getTokenType()) {
+                case NUM:
+                    index = tree.number(node.getNumber());
+                    break;
+                case VAR:
+                    index = tree.variable(node.getTokenVal());
+                    break;
+                case FUNC:
+                    index = tree.function(node.getTokenVal(), node.getUserFunction(), left, right);
+                    break;
+                default:
+                    index = tree.operator(node.getTokenType(), left, right);
+                    break;
+            }
+            indices.put(node, index);
+        }
+        tree.setRoot(indices.get(root));
+        return tree;
+    }
+
+    /** Sets the root and releases the room left for more nodes
+     * @param index The index of the root node
+     */
+    void setRoot(int index) {
+        this.root = index;
+        this.ops = Arrays.copyOf(this.ops, this.size);
+        this.children = Arrays.copyOf(this.children, this.size * 2);
+        this.constants = Arrays.copyOf(this.constants, this.constantCount);
+        this.names = Arrays.copyOf(this.names, this.nameCount);
+        this.functions = Arrays.copyOf(this.functions, this.nameCount);
+    }
+
+    /** Returns a view of the tree as ASTNodes
+     * <p>
+     * Nodes are created as they are reached and each index has one node in a
+     * view, so identity comparisons behave as for a tree of ASTNodes. Setting a
+     * child of a view node changes only that node, never the arrays.
+     * @return The root node of a new view
+     */
+    ASTNode root() {
+        return new View(this).node(this.root);
+    }
+
+    /** Returns the number of nodes
+     * @return The node count
+     */
+    int size() {
+        return this.size;
+    }
+
+    Lexer.TokenType type(int index) {
+        return TYPES[this.ops[index] & 0xFF];
+    }
+
+    int left(int index) {
+        return this.children[2 * index];
+    }
+
+    int right(int index) {
+        return this.children[2 * index + 1];
+    }
+
+    /** Returns the number of a NUM node
+     * @param index The index of the node
+     * @return The number, or NaN if the node is not a NUM
+     */
+    double number(int index) {
+        return type(index) == Lexer.TokenType.NUM ? this.constants[this.ops[index] >>> 8] : Double.NaN;
+    }
+
+    /** Returns the text of a node
+     * @param index The index of the node
+     * @return The name of a VAR or FUNC, the symbol of an operator, or the number of a NUM
+     */
+    String text(int index) {
+        switch (type(index)) {
+            case NUM:
+                return Double.toString(number(index));
+            case VAR:
+            case FUNC:
+                return this.names[this.ops[index] >>> 8];
+            case PLUS:
+                return "+";
+            case MINUS:
+                return "-";
+            case MUL:
+                return "*";
+            case DIV:
+                return "/";
+            case EXP:
+                return "^";
+            case LPAREN:
+                return "(";
+            case RPAREN:
+                return ")";
+            default:
+                return ",";
+        }
+    }
+
+    /** Returns the registered function called by a FUNC node
+     * @param index The index of the node
+     * @return The function, or null for a built-in or unknown function
+     */
+    synchronized UserFunction userFunction(int index) {
+        int name = this.ops[index] >>> 8;
+        if (this.functions == null) {
+            this.functions = new UserFunction[this.names.length];
+        }
+        UserFunction function = this.functions[name];
+        if (function == null && BuiltinFunction.forName(this.names[name]) == null) {
+            // implementations are not serialized, bind again after loading
+            function = FunctionRegistry.getDefault().lookup(this.names[name]);
+            this.functions[name] = function;
+        }
+        return function;
+    }
+
+    private int add(int operand, Lexer.TokenType type, int left, int right) {
+        if (this.size == this.ops.length) {
+            this.ops = Arrays.copyOf(this.ops, this.size * 2);
+            this.children = Arrays.copyOf(this.children, this.size * 4);
+        }
+        this.ops[this.size] = (operand << 8) | type.ordinal();
+        this.children[2 * this.size] = left;
+        this.children[2 * this.size + 1] = right;
+        return this.size++;
+    }
+
+    /** Returns the index of a name in the name pool, adding it if needed
+     * @param name The name
+     * @param function The registered function with that name, or null
+     * @return The index in the name pool
+     */
+    private int name(String name, UserFunction function) {
+        for (int i = 0; i < this.nameCount; i++) {
+            if (this.names[i].equals(name) && this.functions[i] == function) {
+                return i;
+            }
+        }
+        if (this.nameCount == this.names.length) {
+            this.names = Arrays.copyOf(this.names, this.nameCount * 2);
+            this.functions = Arrays.copyOf(this.functions, this.nameCount * 2);
+        }
+        this.names[this.nameCount] = name;
+        this.functions[this.nameCount] = function;
+        return this.nameCount++;
+    }
+
+    /**
+     * View keeps the one ASTNode of each index reached in a view of a SyntaxTree
+     */
+    static final class View implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+        private final SyntaxTree tree;
+        private transient ASTNode[] nodes;
+
+        private View(SyntaxTree tree) {
+            this.tree = tree;
+        }
+
+        SyntaxTree tree() {
+            return this.tree;
+        }
+
+        /** Returns the node of an index, creating it on first use
+         * @param index The index of the node, or -1
+         * @return The node, or null for -1
+         */
+        ASTNode node(int index) {
+            if (index < 0) {
+                return null;
+            }
+            if (this.nodes == null) {
+                this.nodes = new ASTNode[this.tree.size];
+            }
+            ASTNode node = this.nodes[index];
+            if (node == null) {
+                node = new ASTNode(this, index);
+                this.nodes[index] = node;
+            }
+            return node;
+        }
+    }
+}
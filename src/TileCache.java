@@ -0,0 +1,210 @@
+package src;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * TileCache keeps evaluated stretches of curves, so panning the graph only
+ * evaluates the strip that comes into view.
+ * <p>
+ * A curve is sampled on the lattice of inputs k * spacing, and the lattice is
+ * cut into tiles of TILE samples, keyed by the function's expression, the
+ * spacing, which is the resolution level, and the tile index. Since the
+ * lattice does not move with the viewport, a pan finds most tiles cached, and
+ * each zoom level keeps its own tiles. Tiles are evicted least recently used
+ * first once they take more than the memory budget, read in bytes from the
+ * system property "calculator.tiles.budget".
+ */
+final class TileCache {
+
+    static final int TILE = 256;
+    static final long TILE_BYTES = 2 * (16 + 8L * TILE) + 96;    // both arrays, the tile and its key
+    private static final long DEFAULT_BUDGET = 16L << 20;
+    private static final TileCache SHARED =
+            new TileCache(Math.max(TILE_BYTES, Long.getLong("calculator.tiles.budget", DEFAULT_BUDGET)));
+
+    private final long budget;
+    private final Map<Key, Tile> tiles;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /** Constructor for the TileCache
+     * @param budget The most memory in bytes the tiles may take, at least TILE_BYTES
+     */
+    TileCache(long budget) {
+        if (budget < TILE_BYTES) {
+            throw new IllegalArgumentException("Tile budget must be at least " + TILE_BYTES + " bytes");
+        }
+        this.budget = budget;
+        this.tiles = new LinkedHashMap<Key, Tile>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Tile> eldest) {
+                if (size() * TILE_BYTES > TileCache.this.budget) {
+                    TileCache.this.evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /** Returns the cache shared by the view
+     * @return The shared cache
+     */
+    static TileCache shared() {
+        return SHARED;
+    }
+
+    /** Samples a function at every lattice input k * spacing in a range, evaluating only tiles not cached
+     * @param funct The function to sample
+     * @param from The lowest input
+     * @param to The highest input
+     * @param spacing The distance between lattice inputs
+     * @param out Filled with the samples in increasing input order
+     * @return The number of samples evaluated
+     * @throws java.util.concurrent.CancellationException if a render worker is interrupted between tiles
+     */
+    int sample(Function funct, double from, double to, double spacing, SampleBuffer out) {
+        long first = (long) Math.ceil(from / spacing);
+        long last = (long) Math.floor(to / spacing);
+        out.reset((int) Math.max(0, last - first + 1));
+        if (last < first) {
+            return 0;
+        }
+        Object function = funct.tileKey();
+        int evaluated = 0;
+        for (long tile = Math.floorDiv(first, TILE); tile <= Math.floorDiv(last, TILE); tile++) {
+            Key key = new Key(function, spacing, tile);
+            Tile cached;
+            synchronized (this) {
+                cached = this.tiles.get(key);
+                if (cached != null) {
+                    this.hits++;
+                } else {
+                    this.misses++;
+                }
+            }
+            if (cached == null) {
+                RenderPipeline.checkCancelled();
+                cached = new Tile(funct, tile, spacing);
+                evaluated += TILE;
+                synchronized (this) {
+                    this.tiles.put(key, cached);
+                }
+            }
+            long base = tile * TILE;
+            int lo = (int) (Math.max(first, base) - base);
+            int hi = (int) (Math.min(last, base + TILE - 1) - base);
+            for (int j = lo; j <= hi; j++) {
+                out.add(cached.xs[j], cached.ys[j]);
+            }
+        }
+        return evaluated;
+    }
+
+    /** Removes every tile, keeping the counters
+     */
+    synchronized void clear() {
+        this.tiles.clear();
+    }
+
+    /** Returns the number of cached tiles
+     * @return The size of the cache
+     */
+    synchronized int size() {
+        return this.tiles.size();
+    }
+
+    /** Returns the memory the cached tiles take
+     * @return The estimated size in bytes
+     */
+    synchronized long bytes() {
+        return this.tiles.size() * TILE_BYTES;
+    }
+
+    /** Returns the most memory the tiles may take
+     * @return The budget in bytes
+     */
+    long budget() {
+        return this.budget;
+    }
+
+    /** Returns the number of tile lookups that found the tile cached
+     * @return The hit count
+     */
+    synchronized long hits() {
+        return this.hits;
+    }
+
+    /** Returns the number of tile lookups that had to evaluate the tile
+     * @return The miss count
+     */
+    synchronized long misses() {
+        return this.misses;
+    }
+
+    /** Returns the fraction of tile lookups that found the tile cached
+     * @return The hit rate, 0 before the first lookup
+     */
+    synchronized double hitRate() {
+        long lookups = this.hits + this.misses;
+        return lookups == 0 ? 0.0 : (double) this.hits / lookups;
+    }
+
+    /** Returns the number of tiles dropped to stay within the budget
+     * @return The eviction count
+     */
+    synchronized long evictions() {
+        return this.evictions;
+    }
+
+    /**
+     * Key identifies a tile by function, resolution level and position
+     */
+    private static final class Key {
+
+        private final Object function;
+        private final double spacing;
+        private final long tile;
+
+        Key(Object function, double spacing, long tile) {
+            this.function = function;
+            this.spacing = spacing;
+            this.tile = tile;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key o = (Key) obj;
+            return this.tile == o.tile && Double.compare(this.spacing, o.spacing) == 0
+                    && this.function.equals(o.function);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = this.function.hashCode();
+            hash = 31 * hash + Double.hashCode(this.spacing);
+            return 31 * hash + Long.hashCode(this.tile);
+        }
+    }
+
+    /**
+     * Tile holds the samples of a function at TILE consecutive lattice inputs
+     */
+    private static final class Tile {
+
+        private final double[] xs = new double[TILE];
+        private final double[] ys = new double[TILE];
+
+        Tile(Function funct, long tile, double spacing) {
+            // an evenly stepped grid, so polynomials take the forward differencing kernel
+            funct.calcGrid(tile * TILE * spacing, spacing, this.xs, this.ys);
+        }
+    }
+}
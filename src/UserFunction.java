@@ -0,0 +1,103 @@
+package src;
+
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * UserFunction is a function added to the calculator through a
+ * FunctionRegistry, with its name, number of arguments and implementation
+ * <p>
+ * Implementations must be pure: a call with constant arguments is folded to a
+ * number once, when the expression is parsed.
+ */
+public final class UserFunction {
+
+    private final String name;
+    private final int arity;
+    private final DoubleUnaryOperator unary;
+    private final DoubleBinaryOperator binary;
+    private final UserFunction derivative;
+
+    private UserFunction(String name, int arity, DoubleUnaryOperator unary, DoubleBinaryOperator binary,
+                         UserFunction derivative) {
+        this.name = name;
+        this.arity = arity;
+        this.unary = unary;
+        this.binary = binary;
+        this.derivative = derivative;
+    }
+
+    /** Creates a function of one argument
+     * @param name The name used in expressions
+     * @param implementation The implementation
+     * @return A new UserFunction
+     */
+    public static UserFunction of(String name, DoubleUnaryOperator implementation) {
+        return new UserFunction(name, 1, implementation, null, null);
+    }
+
+    /** Creates a function of one argument that can be differentiated symbolically
+     * @param name The name used in expressions
+     * @param implementation The implementation
+     * @param derivative The derivative of the implementation
+     * @return A new UserFunction
+     */
+    public static UserFunction of(String name, DoubleUnaryOperator implementation, DoubleUnaryOperator derivative) {
+        return new UserFunction(name, 1, implementation, null, of(name + "'", derivative));
+    }
+
+    /** Creates a function of two arguments
+     * @param name The name used in expressions
+     * @param implementation The implementation
+     * @return A new UserFunction
+     */
+    public static UserFunction of(String name, DoubleBinaryOperator implementation) {
+        return new UserFunction(name, 2, null, implementation, null);
+    }
+
+    /** Returns the name of the function as written in an expression
+     * @return The function name
+     */
+    public String name() {
+        return this.name;
+    }
+
+    /** Returns the number of arguments the function takes
+     * @return One or two
+     */
+    public int arity() {
+        return this.arity;
+    }
+
+    /** Returns the derivative of a function of one argument
+     * @return The derivative, or null if it was not given
+     */
+    public UserFunction derivative() {
+        return this.derivative;
+    }
+
+    /** Applies a function of one argument
+     * @param a The argument
+     * @return The value of the function
+     */
+    public double apply(double a) {
+        return this.unary.applyAsDouble(a);
+    }
+
+    /** Applies a function of two arguments
+     * @param a The first argument
+     * @param b The second argument
+     * @return The value of the function
+     */
+    public double apply(double a, double b) {
+        return this.binary.applyAsDouble(a, b);
+    }
+
+    /** Return a String of the function
+     * @return The name and arity of the function
+     */
+    @Override
+    public String toString() {
+        return this.name + "/" + this.arity;
+    }
+}